@@ -0,0 +1,128 @@
+package org.liaohailong.library;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 11:05
+ * Describe: 位图压缩 - 按指定质量，或者在不超过最大字节数的前提下取最高质量
+ */
+final class BitmapEncoder {
+    private static final String TAG = "BitmapEncoder";
+
+    /**
+     * 搜索质量的下限，再低画质已经不可用
+     */
+    private static final int MIN_QUALITY = 5;
+    /**
+     * 原图尺寸上最多压缩几次
+     */
+    private static final int MAX_ATTEMPTS = 6;
+    /**
+     * 探测图的像素数上限，超过时先缩小再估算
+     */
+    private static final int PROBE_PIXELS = 512 * 512;
+
+    private BitmapEncoder() {
+    }
+
+    /**
+     * 压缩位图写入输出流 - 子线程
+     *
+     * @param bitmap   位图
+     * @param format   压缩格式
+     * @param quality  压缩质量 [0,100]，PNG忽略
+     * @param maxBytes 最大字节数，大于0时在[{@link #MIN_QUALITY}, quality]之间搜索，PNG忽略
+     * @param os       输出流
+     * @throws IOException 压缩失败，或者写入失败
+     */
+    static void encode(@NonNull Bitmap bitmap,
+                       @NonNull Bitmap.CompressFormat format,
+                       int quality,
+                       long maxBytes,
+                       @NonNull OutputStream os) throws IOException {
+        if (maxBytes <= 0 || format == Bitmap.CompressFormat.PNG || quality <= MIN_QUALITY) {
+            if (!bitmap.compress(format, quality, os)) throw new IOException("compress failed");
+            return;
+        }
+        // 每次尝试都写入同一块内存，reset只清空不释放，只有最终结果写入输出流
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(maxBytes + maxBytes / 4, 8 * 1024 * 1024));
+        int low = MIN_QUALITY;
+        int high = quality;
+        int guess = probe(bitmap, format, maxBytes, low, high, buffer);
+
+        int best = -1;
+        int encoded = -1;
+        int attempts = 0;
+        int q = guess;
+        while (low <= high && attempts < MAX_ATTEMPTS) {
+            compress(bitmap, format, q, buffer);
+            encoded = q;
+            attempts++;
+            if (buffer.size() <= maxBytes) {
+                best = q;
+                low = q + 1;
+            } else {
+                high = q - 1;
+            }
+            q = (low + high) >>> 1;
+        }
+        if (best < 0) {
+            // 最低质量也超出，按最低质量输出
+            Log.i(TAG, "最低质量仍超过" + maxBytes + "字节，按最低质量输出");
+            best = MIN_QUALITY;
+        }
+        if (encoded != best) compress(bitmap, format, best, buffer);
+        buffer.writeTo(os);
+    }
+
+    /**
+     * 在缩小的探测图上估算质量，字节数按像素数等比放大
+     *
+     * @return 原图尺寸第一次尝试的质量
+     */
+    private static int probe(Bitmap bitmap,
+                             Bitmap.CompressFormat format,
+                             long maxBytes,
+                             int low,
+                             int high,
+                             ByteArrayOutputStream buffer) throws IOException {
+        long pixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        if (pixels <= PROBE_PIXELS) return (low + high) >>> 1;
+        float scale = (float) Math.sqrt(PROBE_PIXELS / (double) pixels);
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        double ratio = pixels / (double) ((long) width * height);
+        Bitmap probe = CropRenderer.render(bitmap, null, 0, width, height);
+        try {
+            // 缩小后的图细节更密，估算偏大，结果偏保守
+            int guess = low;
+            while (low <= high) {
+                int q = (low + high) >>> 1;
+                compress(probe, format, q, buffer);
+                if (buffer.size() * ratio <= maxBytes) {
+                    guess = q;
+                    low = q + 1;
+                } else {
+                    high = q - 1;
+                }
+            }
+            return guess;
+        } finally {
+            BitmapPool.getInstance().put(probe);
+        }
+    }
+
+    private static void compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality, ByteArrayOutputStream buffer)
+            throws IOException {
+        buffer.reset();
+        if (!bitmap.compress(format, quality, buffer)) throw new IOException("compress failed");
+    }
+}
@@ -0,0 +1,212 @@
+package org.liaohailong.library;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/15 10:08
+ * Describe: 位图复用池 - 按像素格式和内存大小分组，解码、裁剪、缩放各阶段复用同一批内存
+ */
+public final class BitmapPool {
+
+    /**
+     * 复用的位图内存最多为需要的几倍，避免小图占用大块内存
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static volatile BitmapPool instance;
+
+    /**
+     * @return 进程内唯一的复用池
+     */
+    @NonNull
+    public static BitmapPool getInstance() {
+        if (instance == null) {
+            synchronized (BitmapPool.class) {
+                if (instance == null) {
+                    instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 像素格式 -> 内存大小 -> 位图
+     */
+    private final Map<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>> buckets = new HashMap<>();
+
+    /**
+     * 放入顺序，超出上限时先回收最早放入的
+     */
+    private final LinkedList<Bitmap> order = new LinkedList<>();
+
+    private long maxSize;
+    private long currentSize = 0;
+
+    private BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxSize 复用池最大字节数
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return 复用池当前字节数
+     */
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    /**
+     * 获取一张透明的位图，池中没有合适的则新建
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @param config 像素格式
+     * @return 可修改的位图
+     */
+    @NonNull
+    public Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap = obtain(width, height, config);
+        if (bitmap == null) return Bitmap.createBitmap(width, height, config);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * 获取一张位图，内容未清空，适合马上被完全覆盖的场景，如{@link android.graphics.BitmapFactory.Options#inBitmap}
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @param config 像素格式
+     * @return 可修改的位图
+     */
+    @NonNull
+    public Bitmap getDirty(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap = obtain(width, height, config);
+        if (bitmap == null) return Bitmap.createBitmap(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * 归还位图，调用方之后不能再使用它
+     *
+     * @param bitmap 位图
+     * @return true表示已放入池中 false表示不可复用，已被回收
+     */
+    public boolean put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return false;
+        Bitmap.Config config = bitmap.getConfig();
+        int size = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (bitmap.isMutable() && config != null && size <= maxSize) {
+                if (order.contains(bitmap)) return true;
+                TreeMap<Integer, LinkedList<Bitmap>> bucket = buckets.get(config);
+                if (bucket == null) {
+                    bucket = new TreeMap<>();
+                    buckets.put(config, bucket);
+                }
+                LinkedList<Bitmap> bitmaps = bucket.get(size);
+                if (bitmaps == null) {
+                    bitmaps = new LinkedList<>();
+                    bucket.put(size, bitmaps);
+                }
+                bitmaps.addLast(bitmap);
+                order.addLast(bitmap);
+                currentSize += size;
+                trimToSize(maxSize);
+                return true;
+            }
+        }
+        bitmap.recycle();
+        return false;
+    }
+
+    /**
+     * 系统内存紧张时调用，参考{@link ComponentCallbacks2#onTrimMemory(int)}
+     *
+     * @param level 内存紧张等级
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(maxSize / 2);
+        }
+    }
+
+    /**
+     * 回收池中所有位图
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    @Nullable
+    private synchronized Bitmap obtain(int width, int height, @NonNull Bitmap.Config config) {
+        TreeMap<Integer, LinkedList<Bitmap>> bucket = buckets.get(config);
+        if (bucket == null) return null;
+        int size = width * height * bytesPerPixel(config);
+        Integer key = bucket.ceilingKey(size);
+        if (key == null || key > size * MAX_SIZE_MULTIPLE) return null;
+
+        LinkedList<Bitmap> bitmaps = bucket.get(key);
+        Bitmap bitmap = bitmaps.removeFirst();
+        if (bitmaps.isEmpty()) bucket.remove(key);
+        order.remove(bitmap);
+        currentSize -= key;
+
+        // 内存足够，直接改变尺寸复用
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    private void trimToSize(long size) {
+        while (currentSize > size && !order.isEmpty()) {
+            Bitmap bitmap = order.removeFirst();
+            int key = bitmap.getAllocationByteCount();
+            TreeMap<Integer, LinkedList<Bitmap>> bucket = buckets.get(bitmap.getConfig());
+            if (bucket != null) {
+                LinkedList<Bitmap> bitmaps = bucket.get(key);
+                if (bitmaps != null) {
+                    bitmaps.remove(bitmap);
+                    if (bitmaps.isEmpty()) bucket.remove(key);
+                }
+            }
+            currentSize -= key;
+            bitmap.recycle();
+        }
+    }
+
+    private static int bytesPerPixel(@NonNull Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case RGBA_F16:
+                return 8;
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.liaohailong.library;
+
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/14 14:20
+ * Describe: 裁剪描述 - 原图中的裁剪区域 + 旋转角度
+ */
+public class CropDescriptor implements Parcelable {
+
+    private final Rect rect;
+    private final CropPhotoView.Degrees degrees;
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    /**
+     * @param rect    裁剪区域，原图像素坐标，未旋转
+     * @param degrees 裁剪后的旋转角度
+     */
+    public CropDescriptor(@NonNull Rect rect, @NonNull CropPhotoView.Degrees degrees) {
+        this(rect, degrees, 0, 0);
+    }
+
+    /**
+     * @param rect         裁剪区域，原图像素坐标，未旋转
+     * @param degrees      裁剪后的旋转角度
+     * @param sourceWidth  原图宽度，未旋转，0表示未知
+     * @param sourceHeight 原图高度，未旋转，0表示未知
+     */
+    public CropDescriptor(@NonNull Rect rect, @NonNull CropPhotoView.Degrees degrees, int sourceWidth, int sourceHeight) {
+        this.rect = new Rect(rect);
+        this.degrees = degrees;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    /**
+     * @return 裁剪区域，原图像素坐标，未旋转
+     */
+    @NonNull
+    public Rect getRect() {
+        return new Rect(rect);
+    }
+
+    @NonNull
+    public CropPhotoView.Degrees getDegrees() {
+        return degrees;
+    }
+
+    /**
+     * @return 原图宽度，未旋转，0表示未知
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * @return 原图高度，未旋转，0表示未知
+     */
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CropDescriptor{" +
+                "rect=" + rect.toShortString() +
+                ", degrees=" + degrees +
+                ", sourceWidth=" + sourceWidth +
+                ", sourceHeight=" + sourceHeight +
+                '}';
+    }
+
+    protected CropDescriptor(Parcel in) {
+        rect = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        degrees = CropPhotoView.Degrees.values()[in.readInt()];
+        sourceWidth = in.readInt();
+        sourceHeight = in.readInt();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(rect.left);
+        dest.writeInt(rect.top);
+        dest.writeInt(rect.right);
+        dest.writeInt(rect.bottom);
+        dest.writeInt(degrees.ordinal());
+        dest.writeInt(sourceWidth);
+        dest.writeInt(sourceHeight);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<CropDescriptor> CREATOR = new Creator<CropDescriptor>() {
+        @Override
+        public CropDescriptor createFromParcel(Parcel in) {
+            return new CropDescriptor(in);
+        }
+
+        @Override
+        public CropDescriptor[] newArray(int size) {
+            return new CropDescriptor[size];
+        }
+    };
+}
@@ -0,0 +1,207 @@
+package org.liaohailong.library;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/14 15:02
+ * Describe: 无界面的批量裁剪 - 不需要启动{@link CropImageActivity}
+ */
+public final class CropEngine {
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private final ExecutorService executor;
+    private volatile PipelineListener pipelineListener = null;
+
+    /**
+     * 默认线程数 - CPU核数，最多4个，防止同时解码太多原图导致OOM
+     *
+     * @param context 上下文
+     */
+    public CropEngine(@NonNull Context context) {
+        this(context, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * @param context 上下文
+     * @param threads 同时裁剪的最大数量
+     */
+    public CropEngine(@NonNull Context context, int threads) {
+        this(context, newExecutor(threads));
+    }
+
+    /**
+     * @param context  上下文
+     * @param executor 外部提供的线程池，由调用方负责关闭
+     */
+    public CropEngine(@NonNull Context context, @NonNull ExecutorService executor) {
+        this.context = context.getApplicationContext();
+        this.resolver = this.context.getContentResolver();
+        this.executor = executor;
+    }
+
+    /**
+     * 各阶段耗时监听，与{@link CropOptions#setPipelineListener(Class)}同时生效，在裁剪线程回调
+     *
+     * @param listener 监听，null表示移除
+     */
+    public void setPipelineListener(@Nullable PipelineListener listener) {
+        this.pipelineListener = listener;
+    }
+
+    /**
+     * 提交一个裁剪任务
+     *
+     * @param job 裁剪任务
+     * @return 裁剪结果，输出文件的Uri
+     */
+    @NonNull
+    public Future<Uri> submit(@NonNull final Job job) {
+        return executor.submit(new Callable<Uri>() {
+            @Override
+            public Uri call() throws Exception {
+                return process(job);
+            }
+        });
+    }
+
+    /**
+     * 批量提交裁剪任务
+     *
+     * @param jobs 裁剪任务
+     * @return 裁剪结果，与任务一一对应
+     */
+    @NonNull
+    public List<Future<Uri>> submitAll(@NonNull List<Job> jobs) {
+        List<Future<Uri>> futures = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            futures.add(submit(job));
+        }
+        return futures;
+    }
+
+    /**
+     * 不再接收新任务，已提交的任务继续执行
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 执行裁剪 - 子线程
+     *
+     * @param job 裁剪任务
+     * @return 输出文件的Uri
+     * @throws IOException 原图无法解码，或输出文件无法写入
+     */
+    @NonNull
+    private Uri process(@NonNull Job job) throws IOException {
+        CropOptions options = job.options;
+        CropDescriptor descriptor = job.descriptor;
+        int degrees = CropPhotoView.degreesOf(descriptor.getDegrees());
+        PipelineTracer tracer = new PipelineTracer(pipelineListener, options.getPipelineListener());
+        if (options.isLossless()) {
+            ExifInterface exif = readExif(tracer, options);
+            PipelineTracer.Span span = tracer.begin(PipelineEvent.Stage.LOSSLESS);
+            try {
+                Rect actual = new Rect();
+                long bytes = CropOutputWriter.writeLossless(context, options, descriptor.getRect(), degrees, exif, actual);
+                boolean swap = !options.isOrientationTag() && CropRenderer.isSwapped(degrees);
+                span.end(bytes,
+                        swap ? actual.height() : actual.width(),
+                        swap ? actual.width() : actual.height());
+                return options.getOutput();
+            } catch (IOException e) {
+                // 原图不支持无损裁剪，退回区域解码
+                span.fail(e);
+                e.printStackTrace();
+            }
+        }
+        int outputWidth = options.getOutputWidth();
+        int outputHeight = options.getOutputHeight();
+        ExifInterface exif = null;
+        if (options.isOrientationTag()) {
+            // 像素保持原图方向，输出宽高按原图方向互换
+            exif = readExif(tracer, options);
+            if (CropRenderer.isSwapped(degrees)) {
+                outputWidth = options.getOutputHeight();
+                outputHeight = options.getOutputWidth();
+            }
+        }
+        PipelineTracer.Span span = tracer.begin(PipelineEvent.Stage.REGION_DECODE);
+        Bitmap bitmap;
+        try {
+            bitmap = CropRegionDecoder.decode(
+                    resolver,
+                    options.getSource(),
+                    descriptor.getRect(),
+                    options.isOrientationTag() ? 0 : degrees,
+                    outputWidth,
+                    outputHeight);
+            span.end(bitmap.getAllocationByteCount(), bitmap.getWidth(), bitmap.getHeight());
+        } catch (IOException | RuntimeException e) {
+            span.fail(e);
+            throw e;
+        }
+        span = tracer.begin(PipelineEvent.Stage.ENCODE);
+        try {
+            long bytes = CropOutputWriter.write(context, bitmap, options, exif, degrees);
+            span.end(bytes, bitmap.getWidth(), bitmap.getHeight());
+            VariantEncoder.write(context, bitmap, options, exif, degrees, tracer);
+            return options.getOutput();
+        } catch (IOException | RuntimeException e) {
+            span.fail(e);
+            throw e;
+        } finally {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    @Nullable
+    private ExifInterface readExif(@NonNull PipelineTracer tracer, @NonNull CropOptions options) {
+        PipelineTracer.Span span = tracer.begin(PipelineEvent.Stage.EXIF);
+        ExifInterface exif = CropOutputWriter.readExif(resolver, options.getSource());
+        span.end(-1, 0, 0);
+        return exif;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        int count = Math.max(1, threads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(count, count,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 裁剪任务 - 原图与输出由{@link CropOptions}描述，裁剪区域由{@link CropDescriptor}描述
+     */
+    public static final class Job {
+        final CropOptions options;
+        final CropDescriptor descriptor;
+
+        public Job(@NonNull CropOptions options, @NonNull CropDescriptor descriptor) {
+            this.options = options;
+            this.descriptor = descriptor;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.liaohailong.library;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/17 14:02
+ * Describe: 裁剪库的后台线程 - 默认使用独立的优先级线程池，不与应用中的AsyncTask排队
+ * <p>
+ * 裁剪界面运行在独立进程，注入的线程池需要在Application.onCreate中设置，每个进程都会执行到
+ */
+public final class CropExecutors {
+
+    /**
+     * 任务优先级，只对默认线程池生效
+     */
+    public enum Priority {
+        /**
+         * 用户正在等待的任务 - 预览图加载、确认裁剪
+         */
+        IMMEDIATE,
+        /**
+         * 普通任务
+         */
+        NORMAL,
+        /**
+         * 可以推迟的任务 - 预加载等
+         */
+        BACKGROUND
+    }
+
+    private static volatile Executor injected = null;
+    private static volatile Executor defaultExecutor = null;
+
+    private CropExecutors() {
+    }
+
+    /**
+     * 注入线程池，之后提交的任务都交给它执行，优先级由注入方自行处理
+     *
+     * @param executor 线程池，null表示恢复默认
+     */
+    public static void setExecutor(@Nullable Executor executor) {
+        injected = executor;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param priority 优先级
+     * @param body     任务内容
+     * @return 可以取消的任务句柄
+     */
+    @NonNull
+    static CropTask execute(@NonNull Priority priority, @NonNull CropTask.Body body) {
+        return execute(priority, body, null);
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param priority  优先级
+     * @param body      任务内容
+     * @param onSkipped 开始前被取消、任务内容没有执行时的清理
+     * @return 可以取消的任务句柄
+     */
+    @NonNull
+    static CropTask execute(@NonNull Priority priority, @NonNull CropTask.Body body, @Nullable Runnable onSkipped) {
+        CropTask task = new CropTask(priority, body, onSkipped);
+        Executor executor = injected;
+        (executor != null ? executor : getDefault()).execute(task);
+        return task;
+    }
+
+    @NonNull
+    private static Executor getDefault() {
+        if (defaultExecutor == null) {
+            synchronized (CropExecutors.class) {
+                if (defaultExecutor == null) {
+                    // 解码都是CPU和内存密集的，线程多了只会互相抢占
+                    int count = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(count, count,
+                            30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new CropThreadFactory());
+                    executor.allowCoreThreadTimeOut(true);
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    private static final class CropThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // 与AsyncTask相同，后台优先级但略高一点，不抢主线程和渲染线程
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+                    r.run();
+                }
+            }, "CropExecutors#" + count.incrementAndGet());
+        }
+    }
+}
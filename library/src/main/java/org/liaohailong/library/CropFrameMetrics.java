@@ -0,0 +1,144 @@
+package org.liaohailong.library;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/16 15:20
+ * Describe: 一次交互（拖动、缩放、惯性、矫正、旋转）期间的帧耗时统计
+ */
+public final class CropFrameMetrics {
+
+    /**
+     * 交互类型
+     */
+    public enum Interaction {
+        /**
+         * 单指拖动
+         */
+        PAN,
+        /**
+         * 两指缩放
+         */
+        PINCH,
+        /**
+         * 惯性滑动
+         */
+        FLING,
+        /**
+         * 矫正位置动画
+         */
+        ADJUST,
+        /**
+         * 旋转动画
+         */
+        ROTATE
+    }
+
+    private final Interaction interaction;
+    private final long durationNanos;
+    private final long frameIntervalNanos;
+    private final int frameCount;
+    private final int droppedFrames;
+    private final long maxFrameIntervalNanos;
+    private final int renderedFrames;
+    private final int slowFrames;
+    private final long maxFrameDurationNanos;
+
+    CropFrameMetrics(@NonNull Interaction interaction,
+                     long durationNanos,
+                     long frameIntervalNanos,
+                     int frameCount,
+                     int droppedFrames,
+                     long maxFrameIntervalNanos,
+                     int renderedFrames,
+                     int slowFrames,
+                     long maxFrameDurationNanos) {
+        this.interaction = interaction;
+        this.durationNanos = durationNanos;
+        this.frameIntervalNanos = frameIntervalNanos;
+        this.frameCount = frameCount;
+        this.droppedFrames = droppedFrames;
+        this.maxFrameIntervalNanos = maxFrameIntervalNanos;
+        this.renderedFrames = renderedFrames;
+        this.slowFrames = slowFrames;
+        this.maxFrameDurationNanos = maxFrameDurationNanos;
+    }
+
+    @NonNull
+    public Interaction getInteraction() {
+        return interaction;
+    }
+
+    /**
+     * @return 交互持续时间，第一帧到最后一帧
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return 屏幕刷新间隔
+     */
+    public long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    /**
+     * @return 主线程收到的帧数
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return 主线程错过的帧数 - 相邻两帧间隔超过刷新间隔的部分
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return 相邻两帧的最大间隔
+     */
+    public long getMaxFrameIntervalNanos() {
+        return maxFrameIntervalNanos;
+    }
+
+    /**
+     * @return 7.0及以上，通过FrameMetrics统计到的渲染帧数，不支持时为0
+     */
+    public int getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    /**
+     * @return 7.0及以上，渲染总耗时超过刷新间隔的帧数
+     */
+    public int getSlowFrames() {
+        return slowFrames;
+    }
+
+    /**
+     * @return 7.0及以上，单帧最大渲染总耗时
+     */
+    public long getMaxFrameDurationNanos() {
+        return maxFrameDurationNanos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CropFrameMetrics{" +
+                "interaction=" + interaction +
+                ", durationNanos=" + durationNanos +
+                ", frameIntervalNanos=" + frameIntervalNanos +
+                ", frameCount=" + frameCount +
+                ", droppedFrames=" + droppedFrames +
+                ", maxFrameIntervalNanos=" + maxFrameIntervalNanos +
+                ", renderedFrames=" + renderedFrames +
+                ", slowFrames=" + slowFrames +
+                ", maxFrameDurationNanos=" + maxFrameDurationNanos +
+                '}';
+    }
+}
@@ -1,12 +1,14 @@
 package org.liaohailong.library;
 
 import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
@@ -17,11 +19,15 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.exifinterface.media.ExifInterface;
 import androidx.fragment.app.Fragment;
 
-import java.io.File;
 import java.io.FileDescriptor;
-import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Author: liaohailong
@@ -31,6 +37,13 @@ import java.io.FileOutputStream;
 public class CropImageActivity extends AppCompatActivity {
     private static final String TAG = "CropImageActivity";
     private static final String KEY_OPTIONS = "KEY_OPTIONS";
+    private static final String KEY_PIPELINE_EVENTS = "KEY_PIPELINE_EVENTS";
+    private static final String KEY_DESCRIPTOR = "KEY_DESCRIPTOR";
+
+    /**
+     * 快速预览图的短边尺寸
+     */
+    private static final int QUICK_PREVIEW_SHORT_EDGE = 256;
 
     public static void showForResult(@NonNull Activity activity, @NonNull CropOptions options, int requestCode) {
         Intent intent = new Intent();
@@ -48,15 +61,84 @@ public class CropImageActivity extends AppCompatActivity {
         fragment.startActivityForResult(intent, requestCode);
     }
 
+    /**
+     * 预加载 - 选好图片后马上调用，裁剪界面启动的同时在裁剪进程中解码预览图，界面打开后直接使用
+     *
+     * @param context 上下文
+     * @param options 裁剪配置信息，与之后{@link #showForResult}使用的一致才能命中
+     */
+    public static void prefetch(@NonNull Context context, @NonNull CropOptions options) {
+        Intent intent = new Intent(context, CropPrefetchService.class);
+        intent.putExtra(CropPrefetchService.KEY_OPTIONS, options);
+        try {
+            context.startService(intent);
+        } catch (Exception e) {
+            // 8.0及以上后台不允许启动服务，界面打开后照常加载
+            Log.i(TAG, "预加载启动失败：" + e.toString());
+        }
+    }
+
+    /**
+     * 读取裁剪描述，{@link CropOptions#setDescriptorOnly(boolean)}开启时返回
+     *
+     * @param data onActivityResult中返回的数据
+     * @return 裁剪描述，没有时返回null
+     */
+    @Nullable
+    public static CropDescriptor getCropDescriptor(@Nullable Intent data) {
+        return data != null ? data.getParcelableExtra(KEY_DESCRIPTOR) : null;
+    }
+
+    /**
+     * 读取裁剪流程各阶段的耗时，成功和失败的结果都会携带
+     *
+     * @param data onActivityResult中返回的数据
+     * @return 各阶段耗时记录，按结束顺序；没有时返回空列表
+     */
+    @NonNull
+    public static List<PipelineEvent> getPipelineEvents(@Nullable Intent data) {
+        List<PipelineEvent> events = data != null ? data.getParcelableArrayListExtra(KEY_PIPELINE_EVENTS) : null;
+        return events != null ? events : Collections.emptyList();
+    }
 
     private CropPhotoView mCropView;
     private View mMaskView;
+    private View mConfirmView;
     private CropOptions mCropOptions;
     private String outputPath = "";
 
+    private boolean previewShown = false;
+
     private int maxBitmapWidth = 0;
     private int maxBitmapHeight = 0;
     private Bitmap srcBitmap = null;
+    /**
+     * 预览图的缓存键，null表示不能缓存 - 主线程访问
+     */
+    private String srcBitmapKey = null;
+
+    /**
+     * 原图的EXIF信息 - 方向只在这里读取一次，叠加到预览变换中，不旋转像素
+     */
+    private ExifInterface sourceExif = null;
+    private int orientationDegrees = 0;
+
+    /**
+     * 原图尺寸
+     */
+    private int sourceWidth = 0;
+    private int sourceHeight = 0;
+
+    /**
+     * 各阶段耗时记录，随结果返回
+     */
+    private PipelineTracer mTracer = null;
+    private PipelineTracer.Span confirmSpan = null;
+
+    /**
+     * 进行中的后台任务，界面销毁时全部取消 - 主线程访问
+     */
+    private final List<CropTask> mTasks = new ArrayList<>();
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -68,7 +150,8 @@ public class CropImageActivity extends AppCompatActivity {
 
         findViewById(R.id.tv_back).setOnClickListener(this::goBack);
         findViewById(R.id.tv_rotate).setOnClickListener(this::rotate);
-        findViewById(R.id.tv_confirm).setOnClickListener(this::confirm);
+        mConfirmView = findViewById(R.id.tv_confirm);
+        mConfirmView.setOnClickListener(this::confirm);
         mCropView = findViewById(R.id.iv_crop);
         mMaskView = findViewById(R.id.fl_mask);
 
@@ -82,22 +165,32 @@ public class CropImageActivity extends AppCompatActivity {
         // 检查输出路径
         if (mCropOptions != null) {
             Uri output = mCropOptions.getOutput();
-            outputPath = output.getPath();
+            if (output != null) outputPath = output.getPath();
+            mTracer = new PipelineTracer(mCropOptions.getPipelineListener());
         }
 
-        if (TextUtils.isEmpty(outputPath)) {
+        // 只返回裁剪描述时不需要输出路径
+        if (mCropOptions == null || (!mCropOptions.isDescriptorOnly() && TextUtils.isEmpty(outputPath))) {
             if (isFinishing()) return;
             Toast.makeText(this, "图片保存路径为空", Toast.LENGTH_LONG).show();
             goBack(null);
             return;
         }
 
+        mCropView.setUnbufferedTouch(mCropOptions.isUnbufferedTouch());
         mMaskView.setVisibility(View.VISIBLE);
-        AsyncTask.SERIAL_EXECUTOR.execute(() -> {
+        execute(task -> {
+            PipelineTracer.Span span = null;
+            ParcelFileDescriptor pfd = null;
             try {
                 Uri source = mCropOptions.getSource();
-                ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(source, "r");
+                // 同一张图片、同样配置正在预加载，等它放入缓存
+                CropPrefetcher.await(getApplicationContext(), mCropOptions, task);
+                if (task.isCancelled()) return;
+                span = mTracer.begin(PipelineEvent.Stage.OPEN);
+                pfd = getContentResolver().openFileDescriptor(source, "r");
                 if (pfd == null) {
+                    span.fail("source not found");
                     mCropView.post(() -> {
                         if (isFinishing()) return;
                         Toast.makeText(this, "图片未找到，请重新选择", Toast.LENGTH_LONG).show();
@@ -106,11 +199,28 @@ public class CropImageActivity extends AppCompatActivity {
                     return;
                 }
                 FileDescriptor fd = pfd.getFileDescriptor();
+                span.end(-1, 0, 0);
+
+                // 同一张图片再次打开时，尺寸、EXIF和预览图直接取缓存
+                PreviewCache cache = PreviewCache.getInstance(this);
+                String sourceKey = PreviewCache.keyOf(source, pfd);
+                PreviewCache.Source cached = sourceKey != null ? cache.getSource(sourceKey) : null;
 
-                // 图片裁剪取出，最大手机屏幕大小
+                // 先读取原图尺寸
+                span = mTracer.begin(PipelineEvent.Stage.BOUNDS);
                 BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFileDescriptor(fd, null, options);
+                if (cached != null) {
+                    options.outWidth = cached.width;
+                    options.outHeight = cached.height;
+                    options.outMimeType = cached.mimeType;
+                } else {
+                    options.inJustDecodeBounds = true;
+                    task.setDecoding(options);
+                    BitmapFactory.decodeFileDescriptor(fd, null, options);
+                    task.setDecoding(null);
+                }
+                span.end(pfd.getStatSize(), options.outWidth, options.outHeight);
+                if (task.isCancelled()) return;
 
                 // 判断图片最小尺寸 50 x 50
                 if (options.outWidth * options.outHeight < 50 * 50) {
@@ -122,25 +232,101 @@ public class CropImageActivity extends AppCompatActivity {
                     return;
                 }
 
-                options.inSampleSize = calculateInSampleSize(options, maxBitmapWidth, maxBitmapHeight);
+                // 读取EXIF方向，镜像方向不支持，只取旋转角度
+                span = mTracer.begin(PipelineEvent.Stage.EXIF);
+                sourceExif = cached != null ? cached.exif : CropOutputWriter.readExif(getContentResolver(), source);
+                if (sourceExif != null) orientationDegrees = sourceExif.getRotationDegrees();
+                span.end(-1, 0, 0);
+                if (sourceKey != null && cached == null) {
+                    cache.putSource(sourceKey, new PreviewCache.Source(
+                            options.outWidth, options.outHeight, options.outMimeType, sourceExif));
+                }
+
+                // 按解码策略计算采样率和像素格式，预加载已经算过的直接沿用
+                // 与预加载使用同一个上下文计算，分屏时界面的屏幕尺寸与应用的不同
+                String previewKey = sourceKey != null
+                        ? PreviewCache.keyOf(getApplicationContext(), sourceKey, mCropOptions) : null;
+                DecodeStrategy.Spec spec;
+                if (previewKey != null) {
+                    spec = cache.specOf(this, sourceKey, previewKey, options, mCropOptions);
+                } else {
+                    spec = new DecodeStrategy.Spec();
+                    mCropOptions.getDecodeStrategy().calculate(this, options, mCropOptions, spec);
+                }
+                sourceWidth = options.outWidth;
+                sourceHeight = options.outHeight;
+                Bitmap cachedBitmap = previewKey != null ? cache.take(previewKey) : null;
+                if (cachedBitmap == null && previewKey != null) {
+                    // 之前打开过的图片，直接读取已经缩小的像素
+                    span = mTracer.begin(PipelineEvent.Stage.DISK_CACHE);
+                    long maxBytes = PreviewDiskCache.maxBytesOf(options.outWidth, options.outHeight, spec);
+                    cachedBitmap = PreviewDiskCache.getInstance(this).get(previewKey, maxBytes);
+                    if (cachedBitmap != null) {
+                        span.end(cachedBitmap.getAllocationByteCount(), cachedBitmap.getWidth(), cachedBitmap.getHeight());
+                    } else {
+                        span.end(-1, 0, 0);
+                    }
+                }
+
+                // 先显示EXIF缩略图或者快速解码的小图，马上可以操作；有缓存时不需要
+                if (cachedBitmap == null) {
+                    span = mTracer.begin(PipelineEvent.Stage.QUICK_PREVIEW);
+                    Bitmap quickBitmap = decodeQuickPreview(task, fd, options, spec);
+                    if (quickBitmap != null) {
+                        span.end(quickBitmap.getAllocationByteCount(), quickBitmap.getWidth(), quickBitmap.getHeight());
+                    } else {
+                        span.end(-1, 0, 0);
+                    }
+                    if (task.isCancelled()) return;
+                    if (quickBitmap != null) {
+                        mCropView.post(() -> {
+                            if (isFinishing()) return;
+                            showPreview(quickBitmap, false);
+                        });
+                    }
+                }
+
+                options.inSampleSize = spec.inSampleSize;
+                options.inPreferredConfig = spec.config;
                 options.inJustDecodeBounds = false;
-                srcBitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
-                if (srcBitmap == null) {
-                    if (isFinishing()) return;
-                    Toast.makeText(this, "图片解析失败", Toast.LENGTH_LONG).show();
-                    goBack(null);
+                span = mTracer.begin(PipelineEvent.Stage.PREVIEW);
+                Bitmap bitmap = cachedBitmap != null ? cachedBitmap : decodeWithPool(task, fd, options, spec);
+                if (task.isCancelled()) {
+                    // 界面已经关闭，解码结果留给下次打开
+                    span.fail("cancelled");
+                    if (bitmap != null) releasePreview(previewKey, bitmap);
                     return;
                 }
+                if (bitmap == null) {
+                    span.fail("decode failed");
+                    mCropView.post(() -> {
+                        if (isFinishing()) return;
+                        Toast.makeText(this, "图片解析失败", Toast.LENGTH_LONG).show();
+                        goBack(null);
+                    });
+                    return;
+                }
+                span.end(bitmap.getAllocationByteCount(), bitmap.getWidth(), bitmap.getHeight());
+
+                // 新解码的预览图写入磁盘缓存 - 先复制像素，交给界面之后再校验、落盘
+                PreviewDiskCache.Pending pending = cachedBitmap == null && previewKey != null
+                        ? PreviewDiskCache.getInstance(this).prepare(previewKey, bitmap) : null;
 
                 // 回调主线程
                 mCropView.post(() -> {
-                    if (isFinishing()) return;
-                    mMaskView.setVisibility(View.GONE);
-                    float ratio = mCropOptions.getCropRatio();
-                    mCropView.setCropRatio(ratio);
-                    mCropView.setBitmap(srcBitmap);
+                    if (isFinishing() || task.isCancelled()) {
+                        releasePreview(previewKey, bitmap);
+                        return;
+                    }
+                    srcBitmap = bitmap;
+                    srcBitmapKey = previewKey;
+                    showPreview(srcBitmap, true);
+                    // 预览图经过了缩小，放大时分块加载原图
+                    if (srcBitmap.getWidth() < sourceWidth) mCropView.setTileSource(source);
                 });
+                if (pending != null) pending.commit();
             } catch (Exception e) {
+                if (span != null) span.fail(e);
                 mCropView.post(() -> {
                     if (isFinishing()) return;
                     Toast.makeText(this, "图片加载失败，请重新选择", Toast.LENGTH_LONG).show();
@@ -148,15 +334,240 @@ public class CropImageActivity extends AppCompatActivity {
                 });
                 log("资源图片加载失败：" + e.toString());
                 log(e);
+            } finally {
+                try {
+                    if (pfd != null) {
+                        pfd.close();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
         });
     }
 
+    /**
+     * 显示预览图 - 主线程
+     *
+     * @param bitmap 预览图
+     * @param full   true表示完整的预览图 false表示缩略图，之后会被替换
+     */
+    private void showPreview(Bitmap bitmap, boolean full) {
+        mMaskView.setVisibility(View.GONE);
+        if (previewShown) {
+            // 替换为清晰的预览图，保留用户当前的操作
+            mCropView.refineBitmap(bitmap);
+        } else {
+            float ratio = mCropOptions.getCropRatio();
+            mCropView.setCropRatio(ratio);
+            mCropView.setImageOrientation(orientationDegrees);
+            mCropView.setBitmap(bitmap);
+            previewShown = true;
+        }
+        // 完整预览图到了才能裁剪，只返回裁剪描述时缩略图就够了
+        mConfirmView.setEnabled(full || mCropOptions.isDescriptorOnly());
+    }
+
+    /**
+     * 快速预览图 - 优先使用EXIF中的缩略图，没有则用大采样率快速解码
+     *
+     * @param task   当前任务，取消时中断解码
+     * @param fd     原图
+     * @param bounds 原图信息
+     * @param spec   完整预览图的解码参数
+     * @return 快速预览图，不需要时返回null
+     */
+    private Bitmap decodeQuickPreview(CropTask task, FileDescriptor fd, BitmapFactory.Options bounds, DecodeStrategy.Spec spec) {
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        int shortEdge = Math.min(width, height);
+
+        // 完整解码本身就很快，无需分两步
+        int quickSample = 1;
+        while (shortEdge / (quickSample * 2) >= QUICK_PREVIEW_SHORT_EDGE) {
+            quickSample *= 2;
+        }
+        if (quickSample < spec.inSampleSize * 4) return null;
+
+        // EXIF缩略图 - 宽高比一致才能保证替换时几何关系不变
+        try {
+            Bitmap thumbnail = sourceExif != null && sourceExif.hasThumbnail()
+                    ? sourceExif.getThumbnailBitmap() : null;
+            if (thumbnail != null) {
+                float ratio = width * 1f / height;
+                float thumbnailRatio = thumbnail.getWidth() * 1f / thumbnail.getHeight();
+                if (Math.abs(thumbnailRatio - ratio) / ratio < 0.02f) return thumbnail;
+            }
+        } catch (Exception e) {
+            log("EXIF缩略图读取失败：" + e.toString());
+        }
+
+        // 大采样率快速解码
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = quickSample;
+        options.inPreferredConfig = spec.config;
+        task.setDecoding(options);
+        try {
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } finally {
+            task.setDecoding(null);
+        }
+    }
+
+    /**
+     * 复用池中的位图内存解码
+     * <p>
+     * 2的幂次采样之后，再用密度缩放精确落到目标尺寸，避免采样率取整导致解码出数倍于需要的像素
+     * <p>
+     * 没有使用9.0的ImageDecoder.setTargetSize：它会按EXIF方向旋转像素，与区域解码、分块加载的原图坐标对不上
+     *
+     * @param task    当前任务，取消时中断解码
+     * @param fd      原图
+     * @param options 已经计算好采样率的解码参数
+     * @param spec    解码策略给出的目标尺寸
+     * @return 预览图
+     */
+    static Bitmap decodeWithPool(CropTask task, FileDescriptor fd, BitmapFactory.Options options, DecodeStrategy.Spec spec) {
+        BitmapPool pool = BitmapPool.getInstance();
+        int sampleWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampleHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        if (spec.targetWidth > 0 && spec.targetHeight > 0 && spec.targetWidth < sampleWidth) {
+            // 缩放比例 = inTargetDensity / inDensity
+            options.inScaled = true;
+            options.inDensity = sampleWidth;
+            options.inTargetDensity = spec.targetWidth;
+            // 缩放后的高度有取整误差，多留一行
+            sampleWidth = spec.targetWidth;
+            sampleHeight = spec.targetHeight + 1;
+        }
+        options.inMutable = true;
+        options.inBitmap = pool.getDirty(sampleWidth, sampleHeight, options.inPreferredConfig);
+        task.setDecoding(options);
+        try {
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } catch (IllegalArgumentException e) {
+            // 不满足复用条件，重新分配
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } finally {
+            task.setDecoding(null);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // 取消进行中的解码、裁剪，结果不再回调
+        List<CropTask> running = new ArrayList<>();
+        for (CropTask task : mTasks) {
+            task.cancel();
+            if (!task.isDone()) running.add(task);
+        }
+        mTasks.clear();
+        // 预览图放回缓存，再次打开同一张图片直接使用
+        if (srcBitmap != null) {
+            releasePreviewAfter(running, srcBitmapKey, srcBitmap);
+            srcBitmap = null;
+            srcBitmapKey = null;
+        }
+    }
+
+    /**
+     * 等正在执行的任务结束后再放回预览图 - 主线程
+     * <p>
+     * 已经开始的裁剪还在读取预览图，提前放回会被缓存淘汰、交给复用池覆盖
+     *
+     * @param running 取消后还没有结束的任务
+     * @param key     预览图的缓存键，null表示不能缓存
+     * @param bitmap  预览图
+     */
+    private void releasePreviewAfter(@NonNull List<CropTask> running, @Nullable final String key, @NonNull final Bitmap bitmap) {
+        if (running.isEmpty()) {
+            releasePreview(key, bitmap);
+            return;
+        }
+        final Context context = getApplicationContext();
+        final AtomicInteger remaining = new AtomicInteger(running.size());
+        for (CropTask task : running) {
+            task.addDoneListener(() -> {
+                if (remaining.decrementAndGet() == 0) releasePreview(context, key, bitmap);
+            });
+        }
+    }
+
+    /**
+     * 不再使用的预览图 - 能缓存的放入预览图缓存，否则归还复用池
+     *
+     * @param key    预览图的缓存键，null表示不能缓存
+     * @param bitmap 预览图
+     */
+    private void releasePreview(@Nullable String key, @NonNull Bitmap bitmap) {
+        releasePreview(this, key, bitmap);
+    }
+
+    private static void releasePreview(@NonNull Context context, @Nullable String key, @NonNull Bitmap bitmap) {
+        if (key != null) {
+            PreviewCache.getInstance(context).put(key, bitmap);
+        } else {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
     public void goBack(View v) {
-        setResult(Activity.RESULT_CANCELED);
+        if (confirmSpan != null) confirmSpan.fail("canceled");
+        setResult(Activity.RESULT_CANCELED, newResultIntent());
+        finish();
+    }
+
+    /**
+     * 裁剪结果保存成功，返回输出路径 - 主线程
+     *
+     * @param bytes  输出文件大小
+     * @param width  输出宽度
+     * @param height 输出高度
+     */
+    private void finishWithOutput(long bytes, int width, int height) {
+        if (confirmSpan != null) confirmSpan.end(bytes, width, height);
+        Intent intent = newResultIntent();
+        // content输出直接返回原Uri，文件输出保持返回路径
+        Uri output = mCropOptions.getOutput();
+        intent.setData(ContentResolver.SCHEME_CONTENT.equals(output.getScheme()) ? output : Uri.parse(outputPath));
+        setResult(Activity.RESULT_OK, intent);
+        finish();
+    }
+
+    /**
+     * 只返回裁剪描述，不渲染、不写文件 - 主线程
+     *
+     * @param state 裁剪状态
+     */
+    private void finishWithDescriptor(CropState state) {
+        Rect rect = new Rect();
+        state.mapTo(sourceWidth, sourceHeight, rect);
+        CropDescriptor descriptor = new CropDescriptor(rect,
+                CropPhotoView.toDegrees(state.getDegrees()), sourceWidth, sourceHeight);
+        if (confirmSpan != null) confirmSpan.end(-1, rect.width(), rect.height());
+        log("裁剪描述 " + descriptor);
+        Intent intent = newResultIntent();
+        intent.putExtra(KEY_DESCRIPTOR, descriptor);
+        setResult(Activity.RESULT_OK, intent);
         finish();
     }
 
+    @NonNull
+    private Intent newResultIntent() {
+        Intent intent = new Intent();
+        if (mTracer != null) intent.putParcelableArrayListExtra(KEY_PIPELINE_EVENTS, mTracer.getEvents());
+        return intent;
+    }
+
     private int rotateIndex = 0;
 
     public void rotate(View v) {
@@ -167,100 +578,210 @@ public class CropImageActivity extends AppCompatActivity {
 
     public void confirm(View v) {
         mMaskView.setVisibility(View.VISIBLE);
-        mCropView.crop(this::saveBitmapToOutput);
+        confirmSpan = mTracer.beginAsync(PipelineEvent.Stage.CONFIRM);
+        // 只在这里取一次裁剪状态，之后的导出都使用这份快照，与界面互不影响
+        CropState state = mCropView.getCropState();
+        if (state == null) {
+            Toast.makeText(this, "图片未加载完成", Toast.LENGTH_SHORT).show();
+            mMaskView.setVisibility(View.GONE);
+            confirmSpan.fail("not ready");
+            confirmSpan = null;
+            return;
+        }
+        if (mCropOptions.isDescriptorOnly()) {
+            finishWithDescriptor(state);
+        } else if (mCropOptions.isLossless()) {
+            cropLossless(state);
+        } else if (mCropOptions.isFullResolution()) {
+            cropFullResolution(state);
+        } else {
+            cropPreview(state);
+        }
     }
 
-    private void saveBitmapToOutput(Bitmap bitmap) {
-        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
-            // 位图缩放至配置尺寸
-            int outputWidth = mCropOptions.getOutputWidth();
-            int outputHeight = mCropOptions.getOutputHeight();
-            // 最大不能超过屏幕尺寸，防止OOM
-            if (maxBitmapWidth * maxBitmapHeight < outputWidth * outputHeight) {
-                float scaleW = outputWidth * 1f / maxBitmapWidth;
-                float scaleH = outputHeight * 1f / maxBitmapHeight;
-                float scale = Math.max(scaleW, scaleH);
-                outputWidth = (int) (outputWidth / scale);
-                outputHeight = (int) (outputHeight / scale);
+    /**
+     * JPEG无损裁剪 - 在DCT系数上裁剪、旋转，不解码像素
+     *
+     * @param state 裁剪状态
+     */
+    private void cropLossless(CropState state) {
+        Rect rect = new Rect();
+        state.mapTo(sourceWidth, sourceHeight, rect);
+        int degrees = state.getDegrees();
+        execute(task -> {
+            PipelineTracer.Span span = mTracer.begin(PipelineEvent.Stage.LOSSLESS);
+            try {
+                Rect actual = new Rect();
+                long bytes = CropOutputWriter.writeLossless(getApplicationContext(), mCropOptions,
+                        rect, degrees, sourceExif, actual);
+                boolean swap = !mCropOptions.isOrientationTag() && CropRenderer.isSwapped(degrees);
+                int width = swap ? actual.height() : actual.width();
+                int height = swap ? actual.width() : actual.height();
+                span.end(bytes, width, height);
+                mCropView.post(() -> {
+                    log("图片无损裁剪成功 path = " + outputPath);
+                    if (isFinishing()) return;
+                    finishWithOutput(bytes, width, height);
+                });
+            } catch (Exception e) {
+                // 原图不支持无损裁剪，如渐进式JPEG，退回原图区域解码
+                span.fail(e);
+                log("无损裁剪失败：" + e.toString());
+                mCropView.post(() -> {
+                    if (isFinishing()) return;
+                    cropFullResolution(state);
+                });
             }
+        });
+    }
 
-            Bitmap scaleBitmap = scaleBitmap(bitmap, outputWidth, outputHeight);
+    /**
+     * 按原图分辨率导出，只解码原图中的裁剪区域
+     *
+     * @param state 裁剪状态
+     */
+    private void cropFullResolution(CropState state) {
+        RectF region = new RectF();
+        state.getNormalizedRect(region);
+        // 写入EXIF方向标签时，像素保持原图方向，输出宽高互换
+        boolean tag = mCropOptions.isOrientationTag();
+        int degrees = state.getDegrees();
+        boolean swap = tag && CropRenderer.isSwapped(degrees);
+        int outputWidth = swap ? mCropOptions.getOutputHeight() : mCropOptions.getOutputWidth();
+        int outputHeight = swap ? mCropOptions.getOutputWidth() : mCropOptions.getOutputHeight();
+        execute(task -> {
+            PipelineTracer.Span span = mTracer.begin(PipelineEvent.Stage.REGION_DECODE);
+            try {
+                Bitmap bitmap = CropRegionDecoder.decode(
+                        getContentResolver(),
+                        mCropOptions.getSource(),
+                        region,
+                        tag ? 0 : degrees,
+                        outputWidth,
+                        outputHeight);
+                span.end(bitmap.getAllocationByteCount(), bitmap.getWidth(), bitmap.getHeight());
+                if (task.isCancelled()) {
+                    BitmapPool.getInstance().put(bitmap);
+                    return;
+                }
+                mCropView.post(() -> saveBitmapToOutput(bitmap, degrees));
+            } catch (Exception e) {
+                // 格式不支持区域解码，退回预览图裁剪
+                span.fail(e);
+                log("原图区域解码失败：" + e.toString());
+                log(e);
+                mCropView.post(() -> {
+                    if (isFinishing()) return;
+                    cropPreview(state);
+                });
+            }
+        });
+    }
+
+    /**
+     * 预览图裁剪 - 裁剪结果直接渲染为输出尺寸
+     *
+     * @param state 裁剪状态
+     */
+    private void cropPreview(CropState state) {
+        // 位图缩放至配置尺寸
+        int outputWidth = mCropOptions.getOutputWidth();
+        int outputHeight = mCropOptions.getOutputHeight();
+        boolean rotatePixels = !mCropOptions.isOrientationTag();
+        PipelineTracer.Span span = mTracer.beginAsync(PipelineEvent.Stage.RENDER);
+        CropPhotoView.OnImageCropCallback callback = bitmap -> {
+            span.end(bitmap.getAllocationByteCount(), bitmap.getWidth(), bitmap.getHeight());
+            saveBitmapToOutput(bitmap, state.getDegrees());
+        };
+        if (outputWidth <= 0 || outputHeight <= 0) {
+            // 未指定输出尺寸，按裁剪区域输出
+            mTasks.add(mCropView.crop(state, rotatePixels, callback));
+            return;
+        }
+        // 最大不能超过屏幕尺寸，防止OOM
+        if (maxBitmapWidth * maxBitmapHeight < outputWidth * outputHeight) {
+            float scaleW = outputWidth * 1f / maxBitmapWidth;
+            float scaleH = outputHeight * 1f / maxBitmapHeight;
+            float scale = Math.max(scaleW, scaleH);
+            outputWidth = (int) (outputWidth / scale);
+            outputHeight = (int) (outputHeight / scale);
+        }
+        mTasks.add(mCropView.crop(state, outputWidth, outputHeight, rotatePixels, callback));
+    }
 
+    /**
+     * 裁剪结果保存本地 - 主线程
+     *
+     * @param bitmap  裁剪结果，保存后归还复用池
+     * @param degrees 裁剪状态中的旋转角度，写入EXIF方向标签时使用
+     */
+    private void saveBitmapToOutput(Bitmap bitmap, int degrees) {
+        // 排队期间界面销毁，任务内容不会执行，由取消回调归还位图
+        execute(task -> {
+            if (task.isCancelled()) {
+                BitmapPool.getInstance().put(bitmap);
+                return;
+            }
             // 图片保存本地
-            Bitmap.CompressFormat format = mCropOptions.getOutputFormat();
-            FileOutputStream fos = null;
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            PipelineTracer.Span span = mTracer.begin(PipelineEvent.Stage.ENCODE);
+            boolean success = false;
+            long length = -1;
             try {
-                fos = new FileOutputStream(new File(outputPath));
-                if (scaleBitmap.compress(format, 100, fos)) {
-                    // 保存成功
-                    mCropView.post(() -> {
-                        log("图片裁剪成功 path = " + outputPath);
-                        if (isFinishing()) return;
-                        Intent intent = new Intent();
-                        intent.setData(Uri.parse(outputPath));
-                        setResult(Activity.RESULT_OK, intent);
-                        finish();
-                    });
-                } else {
-                    // 保存失败
-                    mCropView.post(() -> {
-                        if (isFinishing()) return;
-                        Toast.makeText(this, "图片保存失败", Toast.LENGTH_LONG).show();
-                        goBack(null);
-                    });
-                }
+                length = CropOutputWriter.write(getApplicationContext(), bitmap, mCropOptions, sourceExif, degrees);
+                span.end(length, width, height);
+                VariantEncoder.write(getApplicationContext(), bitmap, mCropOptions, sourceExif, degrees, mTracer);
+                success = true;
             } catch (Exception e) {
+                span.fail(e);
                 log("图片裁剪失败：" + e.toString());
                 log(e);
             } finally {
-                try {
-                    if (fos != null) {
-                        fos.close();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                BitmapPool.getInstance().put(bitmap);
             }
-        });
+            if (success) {
+                // 保存成功
+                long bytes = length;
+                mCropView.post(() -> {
+                    log("图片裁剪成功 path = " + outputPath);
+                    if (isFinishing()) return;
+                    finishWithOutput(bytes, width, height);
+                });
+            } else {
+                // 保存失败
+                mCropView.post(() -> {
+                    if (isFinishing()) return;
+                    Toast.makeText(this, "图片保存失败", Toast.LENGTH_LONG).show();
+                    goBack(null);
+                });
+            }
+        }, () -> BitmapPool.getInstance().put(bitmap));
     }
 
 
-    private int calculateInSampleSize(BitmapFactory.Options options,
-                                      int reqWidth, int reqHeight) {
-        // 源图片的高度和宽度
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-        if (height > reqHeight || width > reqWidth) {
-            // 计算出实际宽高和目标宽高的比率
-            final int heightRatio = Math.round((float) height / (float) reqHeight);
-            final int widthRatio = Math.round((float) width / (float) reqWidth);
-            // 选择宽和高中最小的比率作为inSampleSize的值，这样可以保证最终图片的宽和高
-            // 一定都会大于等于目标的宽和高。
-            inSampleSize = Math.min(heightRatio, widthRatio);
-        }
-        return inSampleSize;
+    /**
+     * 提交后台任务，界面销毁时取消 - 主线程
+     *
+     * @param body 任务内容
+     */
+    private void execute(@NonNull CropTask.Body body) {
+        execute(body, null);
     }
 
     /**
-     * 根据给定的宽和高进行拉伸
+     * 提交后台任务，界面销毁时取消 - 主线程
      *
-     * @param origin    原图
-     * @param newWidth  新图的宽
-     * @param newHeight 新图的高
-     * @return new Bitmap
+     * @param body      任务内容
+     * @param onSkipped 开始前被取消、任务内容没有执行时的清理
      */
-    private Bitmap scaleBitmap(Bitmap origin, int newWidth, int newHeight) {
-        if (origin == null) {
-            return null;
+    private void execute(@NonNull CropTask.Body body, @Nullable Runnable onSkipped) {
+        // 清理已经结束的任务
+        Iterator<CropTask> iterator = mTasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) iterator.remove();
         }
-        int height = origin.getHeight();
-        int width = origin.getWidth();
-        float scaleWidth = ((float) newWidth) / width;
-        float scaleHeight = ((float) newHeight) / height;
-        Matrix matrix = new Matrix();
-        matrix.postScale(scaleWidth, scaleHeight);// 使用后乘
-        return Bitmap.createBitmap(origin, 0, 0, width, height, matrix, false);
+        mTasks.add(CropExecutors.execute(CropExecutors.Priority.IMMEDIATE, body, onSkipped));
     }
 
     private void log(Object msg) {
@@ -1,15 +1,21 @@
 package org.liaohailong.library;
 
+import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.text.TextUtils;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Author: liaohailong
@@ -32,6 +38,17 @@ public class CropOptions implements Parcelable {
     private int outputHeight;
     @CompressFormat
     private int outputFormat = JPEG;
+    private boolean fullResolution = false;
+    private String decodeStrategy = null;
+    private boolean orientationTag = false;
+    private boolean lossless = false;
+    private boolean unbufferedTouch = false;
+    private String pipelineListener = null;
+    private boolean descriptorOnly = false;
+    private boolean outputSync = false;
+    private int quality = 100;
+    private long maxOutputBytes = 0;
+    private ArrayList<OutputVariant> variants = new ArrayList<>();
 
     private CropOptions(Uri source, Uri output, int outputWidth, int outputHeight, int outputFormat) {
         this.source = source;
@@ -45,6 +62,9 @@ public class CropOptions implements Parcelable {
         return source;
     }
 
+    /**
+     * @return 输出文件，只返回裁剪描述时可能为null
+     */
     public Uri getOutput() {
         return output;
     }
@@ -61,6 +81,221 @@ public class CropOptions implements Parcelable {
         return (outputWidth * 1f) / (outputHeight * 1f);
     }
 
+    /**
+     * 按原图分辨率导出 - 直接从原图中解码裁剪区域，输出尺寸不再受屏幕大小限制
+     *
+     * @param fullResolution true表示开启
+     * @return 裁剪信息
+     */
+    public CropOptions setFullResolution(boolean fullResolution) {
+        this.fullResolution = fullResolution;
+        return this;
+    }
+
+    public boolean isFullResolution() {
+        return fullResolution;
+    }
+
+    /**
+     * 旋转角度写入JPEG的EXIF方向标签，不旋转像素，同时保留原图的EXIF信息
+     * <p>
+     * 只对JPEG输出生效，其它格式仍然旋转像素
+     *
+     * @param orientationTag true表示开启
+     * @return 裁剪信息
+     */
+    public CropOptions setOrientationTag(boolean orientationTag) {
+        this.orientationTag = orientationTag;
+        return this;
+    }
+
+    public boolean isOrientationTag() {
+        return orientationTag && outputFormat == JPEG;
+    }
+
+    /**
+     * JPEG无损裁剪 - 原图与输出都是JPEG时，直接在DCT系数上裁剪、旋转，不解码像素，没有画质损失
+     * <p>
+     * 输出为原图分辨率，输出宽高只用来确定裁剪比例；裁剪区域会对齐到JPEG的编码块（8或16像素）；
+     * 原图不支持时（如渐进式JPEG）自动退回普通裁剪
+     *
+     * @param lossless true表示开启
+     * @return 裁剪信息
+     */
+    public CropOptions setLossless(boolean lossless) {
+        this.lossless = lossless;
+        return this;
+    }
+
+    public boolean isLossless() {
+        // 附加输出需要从像素缩放
+        return lossless && outputFormat == JPEG && variants.isEmpty();
+    }
+
+    /**
+     * 只返回裁剪描述（原图像素区域、旋转角度、原图尺寸），不渲染、不写文件
+     * <p>
+     * 确认后立即返回，结果通过{@link CropImageActivity#getCropDescriptor(Intent)}读取；
+     * 旋转角度相对原图存储的像素，已包含EXIF方向
+     *
+     * @param descriptorOnly true表示开启
+     * @return 裁剪信息
+     */
+    public CropOptions setDescriptorOnly(boolean descriptorOnly) {
+        this.descriptorOnly = descriptorOnly;
+        return this;
+    }
+
+    public boolean isDescriptorOnly() {
+        return descriptorOnly;
+    }
+
+    /**
+     * 压缩质量，只对JPEG、WEBP生效，无损裁剪不重新编码，不受影响
+     *
+     * @param quality 压缩质量 [0,100]，默认100
+     * @return 裁剪信息
+     */
+    public CropOptions setQuality(int quality) {
+        this.quality = Math.max(0, Math.min(100, quality));
+        return this;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 输出的最大字节数，在不超过它的前提下取最高的压缩质量，质量上限为{@link #setQuality(int)}
+     * <p>
+     * 只对JPEG、WEBP生效，无损裁剪不重新编码，不受限制；先在缩小的探测图上估算质量，再在原尺寸上二分查找，最多压缩几次；
+     * 最低质量仍然超出时按最低质量输出
+     *
+     * @param maxOutputBytes 最大字节数，小于等于0表示不限制
+     * @return 裁剪信息
+     */
+    public CropOptions setMaxOutputBytes(long maxOutputBytes) {
+        this.maxOutputBytes = maxOutputBytes;
+        return this;
+    }
+
+    public long getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /**
+     * 添加附加输出 - 同一次裁剪额外输出其它尺寸、格式，不需要再次解码和裁剪
+     * <p>
+     * 由主输出的裁剪结果缩小，各附加输出并行压缩；任意一个失败则整体失败；
+     * 设置后不再走JPEG无损裁剪
+     *
+     * @param variant 附加输出，尺寸不要大于主输出
+     * @return 裁剪信息
+     */
+    public CropOptions addVariant(@NonNull OutputVariant variant) {
+        variants.add(variant);
+        return this;
+    }
+
+    @NonNull
+    public List<OutputVariant> getVariants() {
+        return Collections.unmodifiableList(variants);
+    }
+
+    /**
+     * 输出文件提交前强制刷到存储设备（fsync），断电、崩溃后也不会丢失
+     * <p>
+     * 默认关闭，由系统择机写回；任何情况下输出都是先写临时文件再整体替换，不会出现残缺的文件
+     *
+     * @param outputSync true表示开启
+     * @return 裁剪信息
+     */
+    public CropOptions setOutputSync(boolean outputSync) {
+        this.outputSync = outputSync;
+        return this;
+    }
+
+    public boolean isOutputSync() {
+        return outputSync;
+    }
+
+    /**
+     * 触摸事件不按帧缓冲，降低跟手延迟，11.0及以上生效，参考{@link CropPhotoView#setUnbufferedTouch(boolean)}
+     *
+     * @param unbufferedTouch true表示开启
+     * @return 裁剪信息
+     */
+    public CropOptions setUnbufferedTouch(boolean unbufferedTouch) {
+        this.unbufferedTouch = unbufferedTouch;
+        return this;
+    }
+
+    public boolean isUnbufferedTouch() {
+        return unbufferedTouch;
+    }
+
+    /**
+     * 预览图解码尺寸策略，默认为{@link MemoryBudgetDecodeStrategy}
+     * <p>
+     * 裁剪界面运行在独立进程，这里只保存类名，实现类必须有public的无参构造函数
+     *
+     * @param strategy 策略实现类
+     * @return 裁剪信息
+     */
+    public CropOptions setDecodeStrategy(@NonNull Class<? extends DecodeStrategy> strategy) {
+        this.decodeStrategy = strategy.getName();
+        return this;
+    }
+
+    @NonNull
+    public DecodeStrategy getDecodeStrategy() {
+        if (!TextUtils.isEmpty(decodeStrategy)) {
+            try {
+                return (DecodeStrategy) Class.forName(decodeStrategy).newInstance();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return new MemoryBudgetDecodeStrategy();
+    }
+
+    /**
+     * @return 解码策略的类名，未设置时为默认策略
+     */
+    @NonNull
+    String getDecodeStrategyName() {
+        return !TextUtils.isEmpty(decodeStrategy) ? decodeStrategy : MemoryBudgetDecodeStrategy.class.getName();
+    }
+
+    /**
+     * 加载-裁剪-保存流程的阶段耗时监听，每个阶段同时输出Trace区间
+     * <p>
+     * 裁剪界面运行在独立进程，这里只保存类名，实现类必须有public的无参构造函数；
+     * 各阶段的耗时记录也会随结果返回，参考{@link CropImageActivity#getPipelineEvents(Intent)}
+     *
+     * @param listener 监听实现类
+     * @return 裁剪信息
+     */
+    public CropOptions setPipelineListener(@NonNull Class<? extends PipelineListener> listener) {
+        this.pipelineListener = listener.getName();
+        return this;
+    }
+
+    /**
+     * @return 阶段耗时监听，未设置或者创建失败时返回null
+     */
+    @Nullable
+    public PipelineListener getPipelineListener() {
+        if (!TextUtils.isEmpty(pipelineListener)) {
+            try {
+                return (PipelineListener) Class.forName(pipelineListener).newInstance();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
     public Bitmap.CompressFormat getOutputFormat() {
         switch (outputFormat) {
             case JPEG:
@@ -129,6 +364,18 @@ public class CropOptions implements Parcelable {
             }
             return new CropOptions(source, output, outputWidth, outputHeight, format);
         }
+
+        /**
+         * 构建只返回裁剪描述的配置信息，不需要输出文件
+         *
+         * @param source      源文件
+         * @param ratioWidth  裁剪比例 - 宽
+         * @param ratioHeight 裁剪比例 - 高
+         * @return 裁剪信息
+         */
+        public static CropOptions createDescriptorOnly(@NonNull Uri source, int ratioWidth, int ratioHeight) {
+            return new CropOptions(source, null, ratioWidth, ratioHeight, JPEG).setDescriptorOnly(true);
+        }
     }
 
     protected CropOptions(Parcel in) {
@@ -137,6 +384,17 @@ public class CropOptions implements Parcelable {
         outputWidth = in.readInt();
         outputHeight = in.readInt();
         outputFormat = in.readInt();
+        fullResolution = in.readInt() != 0;
+        decodeStrategy = in.readString();
+        orientationTag = in.readInt() != 0;
+        lossless = in.readInt() != 0;
+        unbufferedTouch = in.readInt() != 0;
+        pipelineListener = in.readString();
+        descriptorOnly = in.readInt() != 0;
+        outputSync = in.readInt() != 0;
+        quality = in.readInt();
+        maxOutputBytes = in.readLong();
+        variants = in.createTypedArrayList(OutputVariant.CREATOR);
     }
 
     @Override
@@ -146,6 +404,17 @@ public class CropOptions implements Parcelable {
         dest.writeInt(outputWidth);
         dest.writeInt(outputHeight);
         dest.writeInt(outputFormat);
+        dest.writeInt(fullResolution ? 1 : 0);
+        dest.writeString(decodeStrategy);
+        dest.writeInt(orientationTag ? 1 : 0);
+        dest.writeInt(lossless ? 1 : 0);
+        dest.writeInt(unbufferedTouch ? 1 : 0);
+        dest.writeString(pipelineListener);
+        dest.writeInt(descriptorOnly ? 1 : 0);
+        dest.writeInt(outputSync ? 1 : 0);
+        dest.writeInt(quality);
+        dest.writeLong(maxOutputBytes);
+        dest.writeTypedList(variants);
     }
 
     @Override
@@ -0,0 +1,243 @@
+package org.liaohailong.library;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 09:30
+ * Describe: 一次输出 - 先完整写入临时文件，成功后再落到输出位置，失败不会留下残缺的文件
+ * <p>
+ * 文件输出：临时文件与输出文件在同一目录，写完后重命名覆盖；
+ * content输出：临时文件在缓存目录，写完后整体复制到{@link ContentResolver#openOutputStream(Uri, String)}，
+ * MediaStore的条目在复制期间标记为IS_PENDING
+ */
+final class CropOutput {
+    private static final String TAG = "CropOutput";
+
+    /**
+     * 写入缓冲区大小 - 编码器每次只写几KB，闪存慢的设备上小块写入很慢
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    /**
+     * 文件输出的目标文件，content输出时为null
+     */
+    private final File target;
+    private final File temp;
+    private final boolean sync;
+
+    private boolean committed = false;
+    private boolean pending = false;
+
+    private CropOutput(ContentResolver resolver, Uri uri, File target, File temp, boolean sync) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.target = target;
+        this.temp = temp;
+        this.sync = sync;
+    }
+
+    /**
+     * 准备输出 - 子线程
+     *
+     * @param context 上下文
+     * @param options 裁剪配置信息
+     * @return 输出，用完后必须调用{@link #commit()}或{@link #abort()}
+     * @throws IOException 输出位置无效，或者无法创建临时文件
+     */
+    @NonNull
+    static CropOutput create(@NonNull Context context, @NonNull CropOptions options) throws IOException {
+        return create(context, options.getOutput(), options.isOutputSync());
+    }
+
+    /**
+     * 准备输出 - 子线程
+     *
+     * @param context 上下文
+     * @param uri     输出位置，文件或者content
+     * @param sync    true表示提交前强制刷到存储设备
+     * @return 输出，用完后必须调用{@link #commit()}或{@link #abort()}
+     * @throws IOException 输出位置无效，或者无法创建临时文件
+     */
+    @NonNull
+    static CropOutput create(@NonNull Context context, @Nullable Uri uri, boolean sync) throws IOException {
+        if (uri == null) throw new FileNotFoundException("output not set");
+        ContentResolver resolver = context.getContentResolver();
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            File temp = File.createTempFile("crop_", ".tmp", context.getCacheDir());
+            return new CropOutput(resolver, uri, null, temp, sync);
+        }
+        String path = uri.getPath();
+        if (TextUtils.isEmpty(path)) throw new FileNotFoundException("invalid output: " + uri);
+        File target = new File(path);
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new FileNotFoundException("cannot create directory: " + dir);
+        }
+        // 同一目录才能保证重命名是原子的；前缀至少3个字符，文件名很短时也能创建
+        File temp = File.createTempFile(".crop_" + target.getName(), ".tmp", dir);
+        return new CropOutput(resolver, uri, target, temp, sync);
+    }
+
+    /**
+     * @return 临时文件，提交前可以在上面修改EXIF等信息
+     */
+    @NonNull
+    File getTempFile() {
+        return temp;
+    }
+
+    /**
+     * @return 写入临时文件的缓冲输出流，由调用方关闭
+     * @throws IOException 临时文件无法写入
+     */
+    @NonNull
+    OutputStream openStream() throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE);
+    }
+
+    /**
+     * 临时文件落到输出位置 - 子线程
+     *
+     * @return 输出的字节数
+     * @throws IOException 写入失败，临时文件保留，由{@link #abort()}清理
+     */
+    long commit() throws IOException {
+        long length = temp.length();
+        if (target != null) {
+            if (sync) syncFile(temp);
+            if (!temp.renameTo(target)) replaceTarget();
+        } else {
+            copyToContent();
+            if (!temp.delete()) temp.deleteOnExit();
+        }
+        committed = true;
+        return length;
+    }
+
+    /**
+     * 放弃输出，删除临时文件；已经提交的不受影响
+     * <p>
+     * 输出的条目是调用方创建的，这里只恢复IS_PENDING，不删除条目
+     */
+    void abort() {
+        if (committed) return;
+        if (temp.exists() && !temp.delete()) temp.deleteOnExit();
+        if (pending) {
+            setPending(false);
+            pending = false;
+        }
+    }
+
+    /**
+     * 个别文件系统不允许重命名覆盖已存在的文件：先把原文件移开，成功后再删除，失败时移回原处，
+     * 任何一步失败原文件都还在
+     *
+     * @throws IOException 重命名失败，原文件保持不变
+     */
+    private void replaceTarget() throws IOException {
+        File backup = new File(temp.getPath() + ".bak");
+        if (target.exists() && !target.renameTo(backup)) {
+            throw new IOException("rename failed: " + target + " -> " + backup);
+        }
+        if (!temp.renameTo(target)) {
+            if (backup.exists() && !backup.renameTo(target)) {
+                Log.i(TAG, "原文件恢复失败，保留在：" + backup);
+            }
+            throw new IOException("rename failed: " + temp + " -> " + target);
+        }
+        if (backup.exists() && !backup.delete()) backup.deleteOnExit();
+    }
+
+    private void copyToContent() throws IOException {
+        pending = setPending(true);
+        OutputStream os = resolver.openOutputStream(uri, "wt");
+        if (os == null) throw new FileNotFoundException("cannot open output: " + uri);
+        InputStream is = null;
+        boolean copied = false;
+        try {
+            is = new FileInputStream(temp);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+            os.flush();
+            if (sync && os instanceof FileOutputStream) ((FileOutputStream) os).getFD().sync();
+            copied = true;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            if (copied) {
+                // SAF、MediaStore的输出流常常在关闭时才真正写入，关闭失败说明输出不完整，交给abort()处理
+                os.close();
+            } else {
+                try {
+                    os.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (pending) {
+            setPending(false);
+            pending = false;
+        }
+    }
+
+    /**
+     * 10.0及以上，MediaStore的条目写入期间对其它应用不可见
+     *
+     * @param pending true表示开始写入
+     * @return true表示设置成功
+     */
+    private boolean setPending(boolean pending) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return false;
+        if (!MediaStore.AUTHORITY.equals(uri.getAuthority())) return false;
+        try {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.IS_PENDING, pending ? 1 : 0);
+            return resolver.update(uri, values, null, null) > 0;
+        } catch (Exception e) {
+            // 不是调用方自己创建的条目，没有权限修改
+            Log.i(TAG, "IS_PENDING设置失败：" + e.toString());
+            return false;
+        }
+    }
+
+    private static void syncFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.liaohailong.library;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/14 11:32
+ * Describe: 裁剪结果保存到输出位置 - 文件或者content，参考{@link CropOutput}
+ */
+final class CropOutputWriter {
+
+    /**
+     * 从原图复制到输出文件的EXIF标签
+     */
+    private static final String[] COPY_TAGS = {
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_DATETIME,
+            ExifInterface.TAG_DATETIME_ORIGINAL,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_F_NUMBER,
+            ExifInterface.TAG_ISO_SPEED_RATINGS,
+            ExifInterface.TAG_FOCAL_LENGTH,
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_ARTIST,
+            ExifInterface.TAG_COPYRIGHT,
+    };
+
+    private CropOutputWriter() {
+    }
+
+    /**
+     * 图片保存到输出位置 - 子线程
+     * <p>
+     * 开启{@link CropOptions#isOrientationTag()}时，像素保持原图方向，旋转角度写入EXIF方向标签
+     *
+     * @param context    上下文
+     * @param bitmap     裁剪结果
+     * @param options    裁剪配置信息
+     * @param sourceExif 原图的EXIF信息，null表示没有
+     * @param degrees    显示时需要顺时针旋转的角度，只支持90的倍数
+     * @return 输出的字节数
+     * @throws IOException 压缩失败，或者输出位置无法写入
+     */
+    static long write(@NonNull Context context,
+                      @NonNull Bitmap bitmap,
+                      @NonNull CropOptions options,
+                      @Nullable ExifInterface sourceExif,
+                      int degrees) throws IOException {
+        CropOutput output = CropOutput.create(context, options);
+        try {
+            OutputStream os = output.openStream();
+            try {
+                BitmapEncoder.encode(bitmap, options.getOutputFormat(),
+                        options.getQuality(), options.getMaxOutputBytes(), os);
+            } finally {
+                os.close();
+            }
+            if (options.isOrientationTag()) writeExif(output.getTempFile().getPath(), sourceExif, degrees);
+            return output.commit();
+        } finally {
+            output.abort();
+        }
+    }
+
+    /**
+     * JPEG无损裁剪、旋转后保存到输出位置 - 子线程
+     *
+     * @param context    上下文
+     * @param options    裁剪配置信息
+     * @param rect       裁剪区域，原图像素坐标，未旋转
+     * @param degrees    顺时针旋转角度，只支持90的倍数
+     * @param sourceExif 原图的EXIF信息，null表示没有
+     * @param outActual  输出实际裁剪的区域，对齐到编码块，可以为null
+     * @return 输出的字节数
+     * @throws IOException 原图格式不支持，或者读写失败
+     */
+    static long writeLossless(@NonNull Context context,
+                              @NonNull CropOptions options,
+                              @NonNull Rect rect,
+                              int degrees,
+                              @Nullable ExifInterface sourceExif,
+                              @Nullable Rect outActual) throws IOException {
+        boolean tag = options.isOrientationTag();
+        InputStream is = context.getContentResolver().openInputStream(options.getSource());
+        if (is == null) throw new FileNotFoundException("source not found: " + options.getSource());
+        CropOutput output = null;
+        try {
+            output = CropOutput.create(context, options);
+            OutputStream os = output.openStream();
+            try {
+                Rect actual = JpegTranscoder.transcode(is, os, rect, tag ? 0 : degrees);
+                if (outActual != null) outActual.set(actual);
+            } finally {
+                os.close();
+            }
+            // 原图的EXIF段没有复制，重新写入
+            if (tag || sourceExif != null) writeExif(output.getTempFile().getPath(), sourceExif, tag ? degrees : 0);
+            return output.commit();
+        } finally {
+            try {
+                is.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (output != null) {
+                output.abort();
+            }
+        }
+    }
+
+    /**
+     * 写入EXIF信息 - 复制原图的常用标签，方向标签按旋转角度写入
+     *
+     * @param outputPath 输出的JPEG文件
+     * @param sourceExif 原图的EXIF信息，null表示没有
+     * @param degrees    显示时需要顺时针旋转的角度
+     * @throws IOException 输出文件无法写入
+     */
+    static void writeExif(@NonNull String outputPath,
+                          @Nullable ExifInterface sourceExif,
+                          int degrees) throws IOException {
+        ExifInterface exif = new ExifInterface(outputPath);
+        if (sourceExif != null) {
+            for (String tag : COPY_TAGS) {
+                String value = sourceExif.getAttribute(tag);
+                if (value != null) exif.setAttribute(tag, value);
+            }
+        }
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientationOf(degrees)));
+        exif.saveAttributes();
+    }
+
+    /**
+     * 读取原图的EXIF信息 - 子线程
+     *
+     * @param resolver 内容解析器
+     * @param source   原图
+     * @return EXIF信息，读取失败返回null
+     */
+    @Nullable
+    static ExifInterface readExif(@NonNull ContentResolver resolver, @NonNull Uri source) {
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(source);
+            return is != null ? new ExifInterface(is) : null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @param degrees 顺时针旋转角度
+     * @return EXIF方向标签的值
+     */
+    static int orientationOf(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+}
@@ -10,13 +10,16 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.os.AsyncTask;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Trace;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.InputDevice;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
@@ -49,14 +52,11 @@ public class CropPhotoView extends View {
     private Rect bitmapRect = new Rect();
 
     /**
-     * 图片可见区域 - 一份原视数据，便于矫正
-     */
-    private Rect originVisibleRect = new Rect();
-
-    /**
-     * 图片可见区域 - 坐标
+     * 图片可见区域 - 未旋转的坐标，浮点数避免反复取整带来的误差
+     * <p>
+     * 与旋转角度一起构成完整的变换：位图 -> visibleRect -> 以裁剪区域中心旋转
      */
-    private Rect visibleRect = new Rect();
+    private final RectF visibleRect = new RectF();
 
     /**
      * 视图可见区域 - 坐标
@@ -69,9 +69,9 @@ public class CropPhotoView extends View {
     private Rect cropRect = new Rect();
 
     /**
-     * 裁剪区域 - 反向区域
+     * 裁剪区域 - 反向区域，拆成上下左右四个矩形，只在裁剪区域或视图尺寸变化时计算
      */
-    private Path cropPath = new Path();
+    private final RectF[] maskRects = {new RectF(), new RectF(), new RectF(), new RectF()};
 
     /**
      * 所有用到的画笔
@@ -83,6 +83,11 @@ public class CropPhotoView extends View {
      */
     private Bitmap src;
 
+    /**
+     * 高清分块加载
+     */
+    private TileManager tileManager;
+
     /**
      * 裁剪区域比例
      */
@@ -120,6 +125,22 @@ public class CropPhotoView extends View {
      */
     private Degrees currentDegreesEnum = Degrees.DEGREES_0;
 
+    /**
+     * 原图EXIF方向 - 显示时需要顺时针旋转的角度，与用户旋转叠加，不旋转像素
+     */
+    private int orientationDegrees = 0;
+
+    /**
+     * systrace中的区段名称
+     */
+    private static final String TRACE_DRAW = "CropPhotoView#onDraw";
+    private static final String TRACE_TRANSFORM = "CropPhotoView#transform";
+
+    /**
+     * 帧耗时统计，设置监听后才创建
+     */
+    private FrameTracker frameTracker;
+
     public CropPhotoView(Context context) {
         this(context, null);
     }
@@ -176,6 +197,7 @@ public class CropPhotoView extends View {
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        if (frameTracker != null) frameTracker.attach();
         while (true) {
             HandlerAction action = waitingQueue.pollFirst();
             if (action != null) postDelayed(action.action, action.delay);
@@ -246,21 +268,7 @@ public class CropPhotoView extends View {
             cropRect.set(cropLeft, cropTop, cropRight, cropBottom);
 
             // 计算反向裁剪绘制区域 - 黑色阴影
-            cropPath.reset();
-            cropPath.addRect(
-                    viewRect.left,
-                    viewRect.top,
-                    viewRect.right,
-                    viewRect.bottom,
-                    Path.Direction.CW);
-            Path path = new Path();
-            path.addRect(
-                    cropRect.left,
-                    cropRect.top,
-                    cropRect.right,
-                    cropRect.bottom,
-                    Path.Direction.CW);
-            cropPath.op(path, Path.Op.DIFFERENCE);
+            updateMaskRects();
 
 
             // 位图显示区域，以裁剪区域为参考基准 -> scaleType = centerCrop
@@ -270,8 +278,10 @@ public class CropPhotoView extends View {
             // 设置位图总区域
             bitmapRect.set(0, 0, srcWidth, srcHeight);
 
-            float scaleW = srcWidth * 1f / cropWidth;
-            float scaleH = srcHeight * 1f / cropHeight;
+            // EXIF方向为90或270度时，显示出来的宽高互换
+            boolean swap = CropRenderer.isSwapped(orientationDegrees);
+            float scaleW = (swap ? srcHeight : srcWidth) * 1f / cropWidth;
+            float scaleH = (swap ? srcWidth : srcHeight) * 1f / cropHeight;
             float scale = Math.min(scaleW, scaleH);
             int resizeW = (int) (srcWidth / scale);
             int resizeH = (int) (srcHeight / scale);
@@ -283,7 +293,6 @@ public class CropPhotoView extends View {
 
             // 在视图中渲染的位置
             visibleRect.set(visibleLeft, visibleTop, visibleRight, visibleBottom);
-            originVisibleRect.set(visibleRect);
 
             // 计算最大显示宽度 - 高度等比例缩放，无需计算
             maxVisibleWidth = (int) (viewWidth * 2 / cropWidthPercent);
@@ -302,6 +311,44 @@ public class CropPhotoView extends View {
         post(prepareRunnable);
     }
 
+    /**
+     * 替换为同一张图更清晰的版本，保留当前的缩放、平移和旋转
+     * <p>
+     * 配合{@link #setBitmap(Bitmap)}先显示缩略图，完整的图解码完成后调用
+     *
+     * @param bitmap 与当前原图宽高比一致的位图
+     */
+    public void refineBitmap(@NonNull Bitmap bitmap) {
+        src = bitmap;
+        // 还未初始化区域，prepareRunnable中会用新的位图计算
+        if (bitmapRect.isEmpty()) return;
+        // 可见区域是视图坐标，不受位图分辨率影响，只需更新位图区域
+        bitmapRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        invalidate();
+    }
+
+    /**
+     * 设置原图，放大时从原图中分块解码高清区域，覆盖在低分辨率的裁剪原图之上
+     *
+     * @param source 原图，null表示关闭分块加载
+     */
+    public void setTileSource(@Nullable Uri source) {
+        if (tileManager != null) {
+            tileManager.release();
+            tileManager = null;
+        }
+        if (source == null) return;
+        tileManager = new TileManager(getContext().getContentResolver(), source, this, tileCacheSize());
+    }
+
+    /**
+     * @return 分块缓存大小 - 可用内存的1/8，最多48M
+     */
+    private static int tileCacheSize() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return (int) Math.min(maxMemory / 8, 48 * 1024 * 1024);
+    }
+
     /**
      * @param ratio 设置裁剪区域宽高比
      */
@@ -331,50 +378,253 @@ public class CropPhotoView extends View {
     }
 
     /**
-     * 生成裁剪结果 - 子线程
+     * 设置原图的EXIF方向，在{@link #setBitmap(Bitmap)}之前调用
+     *
+     * @param degrees 原图需要顺时针旋转的角度，只支持90的倍数
+     */
+    public void setImageOrientation(int degrees) {
+        orientationDegrees = (degrees % 360 + 360) % 360;
+    }
+
+    /**
+     * @return 裁剪结果相对原图像素需要旋转的角度 = EXIF方向 + 用户旋转
+     */
+    public int getTotalDegrees() {
+        return (orientationDegrees + degreesOf(currentDegreesEnum)) % 360;
+    }
+
+    /**
+     * 裁剪区域在原图中的位置，用于按原图分辨率导出
+     *
+     * @param out 输出区域，未旋转的坐标，取值[0,1]
+     * @return true表示计算成功 false表示还没有设置原图
+     */
+    public boolean getNormalizedCropRect(@NonNull RectF out) {
+        CropState state = getCropState();
+        if (state == null) return false;
+        state.getNormalizedRect(out);
+        return true;
+    }
+
+    /**
+     * 取出当前的裁剪状态 - 主线程
+     * <p>
+     * 正在进行的惯性、矫正、旋转动画直接跳到结束位置，保证导出的不是动画中间的状态
+     *
+     * @return 裁剪状态快照，还没有设置原图时返回null
+     */
+    @Nullable
+    public CropState getCropState() {
+        settle();
+        RectF region = new RectF();
+        if (!getCropRegion(region)) return null;
+        // 限制在位图范围内
+        if (!region.intersect(0, 0, bitmapRect.width(), bitmapRect.height())) return null;
+        float scale = visibleRect.width() / bitmapRect.width();
+        return new CropState(bitmapRect.width(), bitmapRect.height(), region, getTotalDegrees(), scale);
+    }
+
+    /**
+     * 结束所有变换，到达最终位置
+     */
+    private void settle() {
+        flushTouchFrame();
+        abortFling(true);
+        if (rotateAnim != null && rotateAnim.isRunning()) {
+            // 跳到目标角度，结束回调中会开始矫正位置
+            rotateAnim.end();
+        }
+        abortAdjusting();
+    }
+
+    /**
+     * 裁剪区域在位图中的位置
+     *
+     * @param out 输出区域，未旋转的位图坐标
+     * @return true表示计算成功 false表示还没有设置原图
+     */
+    private boolean getCropRegion(@NonNull RectF out) {
+        if (src == null || bitmapRect.isEmpty()) return false;
+        // 视图坐标 -> 位图坐标
+        getImageMatrix(imageMatrix, degreesOf(currentDegreesEnum));
+        if (!imageMatrix.invert(inverseMatrix)) return false;
+        out.set(cropRect);
+        inverseMatrix.mapRect(out);
+        return true;
+    }
+
+    /**
+     * 计算 位图坐标 -> 视图坐标 的变换矩阵，与{@link #drawBitmap(Canvas)}一致
+     *
+     * @param out     输出矩阵
+     * @param degrees 用户旋转角度，不含EXIF方向
+     */
+    private void getImageMatrix(Matrix out, float degrees) {
+        imageSrcRectF.set(bitmapRect);
+        out.setRectToRect(imageSrcRectF, visibleRect, Matrix.ScaleToFit.FILL);
+        out.postRotate(degrees + orientationDegrees, cropRect.centerX(), cropRect.centerY());
+    }
+
+    /**
+     * @param degrees 顺时针旋转角度，只支持90的倍数
+     * @return 旋转角度 - enum
+     */
+    @NonNull
+    static Degrees toDegrees(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return Degrees.DEGREES_90;
+            case 180:
+                return Degrees.DEGREES_180;
+            case 270:
+                return Degrees.DEGREES_270;
+            default:
+                return Degrees.DEGREES_0;
+        }
+    }
+
+    /**
+     * @param degrees 旋转角度 - enum
+     * @return 旋转角度
+     */
+    static int degreesOf(@NonNull Degrees degrees) {
+        switch (degrees) {
+            case DEGREES_90:
+                return 90;
+            case DEGREES_180:
+                return 180;
+            case DEGREES_270:
+                return 270;
+            case DEGREES_360:
+                return 360;
+            case DEGREES_0:
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 生成裁剪结果 - 子线程，输出尺寸与裁剪区域一致
      *
      * @param callback 裁剪图片回调 - 主线程
+     * @return 裁剪任务，取消后不再回调
      */
-    public void crop(@NonNull final OnImageCropCallback callback) {
-        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+    @NonNull
+    public CropTask crop(@NonNull final OnImageCropCallback callback) {
+        return crop(cropRect.width(), cropRect.height(), callback);
+    }
+
+    /**
+     * 生成裁剪结果 - 按裁剪框尺寸输出
+     *
+     * @param rotatePixels true表示旋转像素 false表示输出原图方向的像素，旋转角度由调用方写入EXIF
+     * @param callback     裁剪图片回调 - 主线程
+     * @return 裁剪任务，取消后不再回调
+     */
+    @NonNull
+    public CropTask crop(boolean rotatePixels, @NonNull final OnImageCropCallback callback) {
+        return crop(cropRect.width(), cropRect.height(), rotatePixels, callback);
+    }
+
+    /**
+     * 按指定的裁剪状态生成裁剪结果 - 按裁剪框尺寸输出
+     *
+     * @param state        裁剪状态，{@link #getCropState()}取出，null表示还没有设置原图
+     * @param rotatePixels true表示旋转像素 false表示输出原图方向的像素，旋转角度由调用方写入EXIF
+     * @param callback     裁剪图片回调 - 主线程
+     * @return 裁剪任务，取消后不再回调
+     */
+    @NonNull
+    public CropTask crop(@Nullable CropState state, boolean rotatePixels, @NonNull final OnImageCropCallback callback) {
+        return crop(state, cropRect.width(), cropRect.height(), rotatePixels, callback);
+    }
+
+    /**
+     * 生成裁剪结果 - 子线程
+     * <p>
+     * 旋转、平移、裁剪、缩放合成一个矩阵，原图直接绘制到输出尺寸的位图上，不再经过整个视图大小的中间图层
+     *
+     * @param outputWidth  输出宽度
+     * @param outputHeight 输出高度
+     * @param callback     裁剪图片回调 - 主线程
+     * @return 裁剪任务，取消后不再回调
+     */
+    @NonNull
+    public CropTask crop(final int outputWidth, final int outputHeight, @NonNull final OnImageCropCallback callback) {
+        return crop(outputWidth, outputHeight, true, callback);
+    }
+
+    /**
+     * 生成裁剪结果 - 子线程
+     *
+     * @param outputWidth  输出宽度，旋转后的方向
+     * @param outputHeight 输出高度，旋转后的方向
+     * @param rotatePixels true表示旋转像素 false表示输出原图方向的像素，旋转角度由调用方写入EXIF
+     * @param callback     裁剪图片回调 - 主线程
+     * @return 裁剪任务，取消后不再回调
+     */
+    @NonNull
+    public CropTask crop(int outputWidth, int outputHeight, boolean rotatePixels,
+                         @NonNull final OnImageCropCallback callback) {
+        return crop(getCropState(), outputWidth, outputHeight, rotatePixels, callback);
+    }
+
+    /**
+     * 按指定的裁剪状态生成裁剪结果 - 子线程只读状态快照和位图，不访问视图
+     *
+     * @param state        裁剪状态，{@link #getCropState()}取出，null表示还没有设置原图
+     * @param outputWidth  输出宽度，旋转后的方向
+     * @param outputHeight 输出高度，旋转后的方向
+     * @param rotatePixels true表示旋转像素 false表示输出原图方向的像素，旋转角度由调用方写入EXIF
+     * @param callback     裁剪图片回调 - 主线程
+     * @return 裁剪任务，取消后不再回调
+     */
+    @NonNull
+    public CropTask crop(@Nullable final CropState state, int outputWidth, int outputHeight, boolean rotatePixels,
+                         @NonNull final OnImageCropCallback callback) {
+        // 主线程取出位图，之后替换为清晰版本也不影响这次裁剪
+        final Bitmap bitmap = src;
+        final boolean ready = state != null && bitmap != null;
+        final RectF region = new RectF();
+        final int totalDegrees = ready ? state.getDegrees() : 0;
+        final int degrees = rotatePixels ? totalDegrees : 0;
+        if (ready) {
+            // 状态取出后位图可能被替换，按归一化坐标换算
+            state.getNormalizedRect(region);
+            region.set(region.left * bitmap.getWidth(), region.top * bitmap.getHeight(),
+                    region.right * bitmap.getWidth(), region.bottom * bitmap.getHeight());
+        }
+        if (!rotatePixels && CropRenderer.isSwapped(totalDegrees)) {
+            // 不旋转像素，输出宽高按原图方向互换
+            int temp = outputWidth;
+            outputWidth = outputHeight;
+            outputHeight = temp;
+        }
+        final int width = outputWidth;
+        final int height = outputHeight;
+        return CropExecutors.execute(CropExecutors.Priority.IMMEDIATE, new CropTask.Body() {
             @Override
-            public void run() {
+            public void run(@NonNull final CropTask task) {
 
                 try {
+                    if (!ready) throw new IllegalStateException("crop before bitmap prepared");
                     // 开始裁剪
                     // 输出内容到bitmap上
-                    int measuredWidth = getMeasuredWidth();
-                    int measuredHeight = getMeasuredHeight();
-                    Bitmap layerBitmap = Bitmap.createBitmap(measuredWidth, measuredHeight, Bitmap.Config.ARGB_8888);
-                    Canvas canvas = new Canvas(layerBitmap);
-                    canvas.clipRect(0, 0, layerBitmap.getWidth(), layerBitmap.getHeight());
-                    drawBitmap(canvas);
-                    canvas.setBitmap(null);
-
-                    int width = cropRect.width();
-                    int height = cropRect.height();
-                    final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                    canvas = new Canvas(bitmap);
-                    Rect src = new Rect();
-                    src.set(cropRect);
-                    Rect dst = new Rect();
-                    dst.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
-                    Paint paint = new Paint();
-                    // 抗锯齿
-                    paint.setAntiAlias(true);
-                    paint.setFilterBitmap(true);
-                    canvas.drawBitmap(layerBitmap, src, dst, paint);
-                    canvas.setBitmap(null);
-                    layerBitmap.recycle();
+                    final Bitmap output = CropRenderer.render(bitmap, region, degrees, width, height);
 
                     post(new Runnable() {
                         @Override
                         public void run() {
-                            callback.onImageCrop(bitmap);
+                            if (task.isCancelled()) {
+                                BitmapPool.getInstance().put(output);
+                                return;
+                            }
+                            callback.onImageCrop(output);
                         }
                     });
                 } catch (Exception e) {
                     e.printStackTrace();
+                    if (task.isCancelled()) return;
                     post(new Runnable() {
                         @Override
                         public void run() {
@@ -392,22 +642,71 @@ public class CropPhotoView extends View {
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         viewRect.set(0, 0, w, h);
+        updateMaskRects();
+    }
+
+    /**
+     * 裁剪区域以外的阴影 - 上下两块占满宽度，左右两块只占裁剪区域的高度，互不重叠
+     */
+    private void updateMaskRects() {
+        maskRects[0].set(viewRect.left, viewRect.top, viewRect.right, cropRect.top);
+        maskRects[1].set(viewRect.left, cropRect.bottom, viewRect.right, viewRect.bottom);
+        maskRects[2].set(viewRect.left, cropRect.top, cropRect.left, cropRect.bottom);
+        maskRects[3].set(cropRect.right, cropRect.top, viewRect.right, cropRect.bottom);
+    }
+
+    /**
+     * 图片位置变化后重绘 - 只刷新图片变化前后覆盖的区域
+     * <p>
+     * 硬件加速时系统会忽略指定的脏区，直接整体刷新
+     */
+    private void invalidateImage() {
+        if (isHardwareAccelerated()) {
+            invalidate();
+            return;
+        }
+        RectF bounds = getTransformVisibleRect();
+        dirtyRectF.set(lastImageBounds);
+        dirtyRectF.union(bounds);
+        dirtyRectF.roundOut(dirtyRect);
+        if (dirtyRect.intersect(viewRect)) invalidate(dirtyRect);
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
+        Trace.beginSection(TRACE_DRAW);
+        try {
+            super.onDraw(canvas);
+            drawFrame(canvas);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void drawFrame(Canvas canvas) {
         drawCropBackground(canvas);
+        if (src != null) {
+            // 每帧只计算一次变换矩阵，底图与高清分块共用
+            imageSrcRectF.set(bitmapRect);
+            imageMatrix.setRectToRect(imageSrcRectF, visibleRect, Matrix.ScaleToFit.FILL);
+            updateRotateMatrix();
+            imageMatrix.postConcat(rotateMatrix);
+            // 记录本帧图片覆盖的区域，下次脏区刷新使用
+            rotateMatrix.mapRect(lastImageBounds, visibleRect);
+        }
         drawBitmap(canvas);
+        drawTiles(canvas);
         drawCropMask(canvas);
     }
 
     private void drawBitmap(Canvas canvas) {
         if (src == null) return;
-        canvas.save();
-        canvas.rotate(currentDegrees, cropRect.centerX(), cropRect.centerY());
-        canvas.drawBitmap(src, bitmapRect, visibleRect, visiblePaint);
-        canvas.restore();
+        canvas.drawBitmap(src, imageMatrix, visiblePaint);
+    }
+
+    private void drawTiles(Canvas canvas) {
+        if (src == null || tileManager == null) return;
+        tileManager.draw(canvas, imageMatrix, src.getWidth(), src.getHeight(), viewRect, visiblePaint);
     }
 
     private void drawCropBackground(Canvas canvas) {
@@ -417,7 +716,9 @@ public class CropPhotoView extends View {
 
     private void drawCropMask(Canvas canvas) {
         if (src == null) return;
-        canvas.drawPath(cropPath, cropAreaPaint);
+        for (RectF rect : maskRects) {
+            if (!rect.isEmpty()) canvas.drawRect(rect, cropAreaPaint);
+        }
     }
 
     /* ------------------------------------------------ 手势操作部分 ------------------------------------------------ */
@@ -452,6 +753,19 @@ public class CropPhotoView extends View {
     private Status status = Status.IDLE;
     private final PointF lastTouch0 = new PointF();
     private final PointF lastTouch1 = new PointF();
+
+    /**
+     * 累积的移动，每帧最多生效一次
+     */
+    private float pendingDx = 0f, pendingDy = 0f, pendingScale = 1f;
+    private boolean touchFrameScheduled = false;
+    private final Choreographer.FrameCallback touchFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            touchFrameScheduled = false;
+            applyPendingTouch();
+        }
+    };
     private VelocityTracker velocityTracker; // 惯性事件
 
     /**
@@ -480,6 +794,8 @@ public class CropPhotoView extends View {
 
         switch (event.getAction() & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN:
+                // 上次手势还没生效的部分
+                flushTouchFrame();
                 // 停止惯性滑动
                 abortFling(false);
                 // 停止矫正位置
@@ -488,8 +804,10 @@ public class CropPhotoView extends View {
                 lastTouch0.set(event.getX(), event.getY());
                 lastTouch1.set(-1f, -1f);
                 status = Status.SINGLE_POINT;
+                beginInteraction(CropFrameMetrics.Interaction.PAN);
                 break;
             case MotionEvent.ACTION_POINTER_DOWN:
+                flushTouchFrame();
                 // 多指按下
                 if (status != Status.IDLE) // 两指放开之后本次操作无效，需要用户松开所有手指，再次两指操作
                     if (event.getPointerCount() >= 2) {
@@ -503,75 +821,54 @@ public class CropPhotoView extends View {
                         lastTouch1.set(x1, y1);
 
                         status = Status.DOUBLE_POINT;
+                        beginInteraction(CropFrameMetrics.Interaction.PINCH);
                     }
                 break;
             case MotionEvent.ACTION_MOVE:
+                // 一帧内可能有多个批量的采样点，全部累积，下一帧统一生效
+                int historySize = event.getHistorySize();
                 switch (status) {
                     case IDLE:
                         // do nothing...
                         break;
                     // 手指移动 - 单指
                     case SINGLE_POINT: {
-                        float x = event.getX();
-                        float y = event.getY();
-                        float dx = x - lastTouch0.x;
-                        float dy = y - lastTouch0.y;
-                        translateVisibleRect((int) dx, (int) dy, false);
-
-                        // 记得记录本次记录，否则下次不会动了
-                        lastTouch0.set(x, y);
+                        for (int h = 0; h <= historySize; h++) {
+                            float x = h < historySize ? event.getHistoricalX(0, h) : event.getX();
+                            float y = h < historySize ? event.getHistoricalY(0, h) : event.getY();
+                            pendingDx += x - lastTouch0.x;
+                            pendingDy += y - lastTouch0.y;
+
+                            // 记得记录本次记录，否则下次不会动了
+                            lastTouch0.set(x, y);
+                        }
+                        scheduleTouchFrame();
                     }
                     break;
                     // 手指移动 - 两指
                     case DOUBLE_POINT: {
-                        float x0 = event.getX(0);
-                        float y0 = event.getY(0);
-
-                        float x1 = event.getX(1);
-                        float y1 = event.getY(1);
-
-                        // 下面是上次的两指位置
-                        float _x0 = lastTouch0.x;
-                        float _y0 = lastTouch0.y;
-
-                        float _x1 = lastTouch1.x;
-                        float _y1 = lastTouch1.y;
-
-                        // 两指的位置可能： 1，左边的手指先按下 2，右边的手指先按下 - 这里使用两指中心点换算
-                        float cx = x0 < x1 ? ((x1 - x0) / 2f + x0) : ((x0 - x1) / 2f + x1);
-                        float cy = y0 < y1 ? ((y1 - y0) / 2f + y0) : ((y0 - y1) / 2f + y1);
+                        if (event.getPointerCount() < 2) break;
+                        for (int h = 0; h <= historySize; h++) {
+                            float x0 = h < historySize ? event.getHistoricalX(0, h) : event.getX(0);
+                            float y0 = h < historySize ? event.getHistoricalY(0, h) : event.getY(0);
 
-                        float _cx = _x0 < _x1 ? ((_x1 - _x0) / 2f + _x0) : ((_x0 - _x1) / 2f + _x1);
-                        float _cy = _y0 < _y1 ? ((_y1 - _y0) / 2f + _y0) : ((_y0 - _y1) / 2f + _y1);
+                            float x1 = h < historySize ? event.getHistoricalX(1, h) : event.getX(1);
+                            float y1 = h < historySize ? event.getHistoricalY(1, h) : event.getY(1);
 
-                        // 计算两指平移量
-                        float dx = cx - _cx;
-                        float dy = cy - _cy;
+                            accumulateDoublePoint(x0, y0, x1, y1);
 
-                        // 两指间距 - 肯定得是正数
-                        float lx = x0 < x1 ? (x1 - x0) : (x0 - x1);
-                        float ly = y0 < y1 ? (y1 - y0) : (y0 - y1);
-                        float length = (float) Math.sqrt(Math.pow(lx, 2) + Math.pow(ly, 2)); // 勾股定理求两点距离
-
-                        // 上次两指间距 - 肯定得是正数
-                        float _lx = _x0 < _x1 ? (_x1 - _x0) : (_x0 - _x1);
-                        float _ly = _y0 < _y1 ? (_y1 - _y0) : (_y0 - _y1);
-                        float _length = (float) Math.sqrt(Math.pow(_lx, 2) + Math.pow(_ly, 2));
-
-                        // 缩放值
-                        float scale = length / _length;
-
-                        // 先缩放 后平移
-                        scaleAndTranslateVisibleRect(scale, dx, dy);
-
-                        // 记得记录本次记录，否则下次不会动了
-                        lastTouch0.set(x0, y0);
-                        lastTouch1.set(x1, y1);
+                            // 记得记录本次记录，否则下次不会动了
+                            lastTouch0.set(x0, y0);
+                            lastTouch1.set(x1, y1);
+                        }
+                        scheduleTouchFrame();
                     }
                     break;
                 }
                 break;
             case MotionEvent.ACTION_POINTER_UP:
+                // 手指数量变化之前，先应用累积的移动
+                flushTouchFrame();
                 // 手指松开 - 可能还有手指在屏幕上
                 switch (status) {
                     case IDLE:
@@ -589,6 +886,10 @@ public class CropPhotoView extends View {
                 }
                 break;
             case MotionEvent.ACTION_UP:
+                // 矫正与惯性之前，先应用累积的移动
+                flushTouchFrame();
+                endInteraction(CropFrameMetrics.Interaction.PAN);
+                endInteraction(CropFrameMetrics.Interaction.PINCH);
                 // 尺寸偏小
                 if (tooSmall()) {
                     adjustPosition();// 开始矫正位置
@@ -604,6 +905,113 @@ public class CropPhotoView extends View {
         return true;
     }
 
+    /**
+     * 两指移动的一个采样点，累积到下一帧
+     * <p>
+     * 以裁剪中心缩放s再平移t，之后的缩放会作用在之前的平移上：累积平移 = 累积平移 * s + t
+     */
+    private void accumulateDoublePoint(float x0, float y0, float x1, float y1) {
+        // 下面是上次的两指位置
+        float _x0 = lastTouch0.x;
+        float _y0 = lastTouch0.y;
+
+        float _x1 = lastTouch1.x;
+        float _y1 = lastTouch1.y;
+
+        // 两指中心点
+        float cx = (x0 + x1) / 2f;
+        float cy = (y0 + y1) / 2f;
+        float _cx = (_x0 + _x1) / 2f;
+        float _cy = (_y0 + _y1) / 2f;
+
+        // 两指间距
+        float length = (float) Math.hypot(x1 - x0, y1 - y0);
+        float _length = (float) Math.hypot(_x1 - _x0, _y1 - _y0);
+        if (_length <= 0f || length <= 0f) return;
+
+        // 缩放值
+        float scale = length / _length;
+        pendingScale *= scale;
+        pendingDx = pendingDx * scale + (cx - _cx);
+        pendingDy = pendingDy * scale + (cy - _cy);
+    }
+
+    /**
+     * 下一帧应用累积的移动
+     */
+    private void scheduleTouchFrame() {
+        if (touchFrameScheduled) return;
+        touchFrameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(touchFrameCallback);
+    }
+
+    /**
+     * 立即应用累积的移动
+     */
+    private void flushTouchFrame() {
+        if (touchFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(touchFrameCallback);
+            touchFrameScheduled = false;
+        }
+        applyPendingTouch();
+    }
+
+    private void applyPendingTouch() {
+        float dx = pendingDx;
+        float dy = pendingDy;
+        float scale = pendingScale;
+        pendingDx = 0f;
+        pendingDy = 0f;
+        pendingScale = 1f;
+        Trace.beginSection(TRACE_TRANSFORM);
+        try {
+            if (scale != 1f) {
+                // 先缩放 后平移
+                scaleAndTranslateVisibleRect(scale, dx, dy);
+            } else if (dx != 0f || dy != 0f) {
+                translateVisibleRect(dx, dy, false);
+            }
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * 设置触摸事件不按帧缓冲，每个采样点立即分发，降低跟手延迟，需要11.0及以上
+     * <p>
+     * 移动仍然在下一帧统一生效，不会增加绘制次数
+     *
+     * @param unbuffered true表示开启
+     */
+    public void setUnbufferedTouch(boolean unbuffered) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            requestUnbufferedDispatch(unbuffered ? InputDevice.SOURCE_CLASS_POINTER : InputDevice.SOURCE_CLASS_NONE);
+        }
+    }
+
+    /**
+     * 统计每次交互（拖动、缩放、惯性、矫正、旋转）的帧耗时与掉帧数，用于线上性能监控
+     *
+     * @param listener 统计回调，null表示关闭
+     */
+    public void setOnFrameMetricsListener(@Nullable OnFrameMetricsListener listener) {
+        if (frameTracker != null) {
+            frameTracker.detach();
+            frameTracker = null;
+        }
+        if (listener == null) return;
+        frameTracker = new FrameTracker(this, listener);
+        if (isAttachedToWindow()) frameTracker.attach();
+    }
+
+    private void beginInteraction(CropFrameMetrics.Interaction interaction) {
+        if (frameTracker != null) frameTracker.begin(interaction);
+    }
+
+    private void endInteraction(CropFrameMetrics.Interaction interaction) {
+        if (frameTracker != null) frameTracker.end(interaction);
+    }
+
     /**
      * 处理惯性
      */
@@ -642,6 +1050,7 @@ public class CropPhotoView extends View {
             int maxY = Integer.MAX_VALUE;
             scroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
             fling = true;
+            beginInteraction(CropFrameMetrics.Interaction.FLING);
             invalidate();
             return true;
         }
@@ -658,7 +1067,12 @@ public class CropPhotoView extends View {
 
             float dx = x - lastTouch0.x;
             float dy = y - lastTouch0.y;
-            translateVisibleRect((int) dx, (int) dy, true);
+            Trace.beginSection(TRACE_TRANSFORM);
+            try {
+                translateVisibleRect(dx, dy, true);
+            } finally {
+                Trace.endSection();
+            }
 
             // 记得记录本次记录，否则下次不会动了
             lastTouch0.set(x, y);
@@ -674,84 +1088,64 @@ public class CropPhotoView extends View {
         if (fling) {
             fling = false;
             scroller.abortAnimation();
+            endInteraction(CropFrameMetrics.Interaction.FLING);
             if (adjust) adjustPosition();
         }
     }
 
-    private final Rect tempRect = new Rect();
-    private final Matrix tempMatrix = new Matrix();
-    private final RectF tempRectF = new RectF();
-    private final Rect transformRect = new Rect();
-    private final Rect restoreRect = new Rect();
-    /* -- 动画相关 --*/
-    private final Rect adjustRect = new Rect();
-    private int adjustX = 0, adjustY = 0;
+    private final Matrix imageMatrix = new Matrix();
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF imageSrcRectF = new RectF();
+    /* -- 旋转矩阵缓存，角度或裁剪区域变化时才重新计算 --*/
+    private final Matrix rotateMatrix = new Matrix();
+    private final Matrix rotateInverseMatrix = new Matrix();
+    private float rotateMatrixDegrees = Float.NaN;
+    private int rotateMatrixCx = 0, rotateMatrixCy = 0;
+    private final RectF transformRect = new RectF();
+    /* -- 脏区刷新 --*/
+    private final RectF lastImageBounds = new RectF();
+    private final RectF dirtyRectF = new RectF();
+    private final Rect dirtyRect = new Rect();
+    private final float[] tempVector = new float[2];
+    /* -- 动画相关，动画与监听只创建一次 --*/
+    private final RectF adjustRect = new RectF();
+    private float adjustX = 0f, adjustY = 0f;
     private float adjustScaleFrom = 1.0f, adjustScaleTo = 1.0f;
     private ValueAnimator adjustAnim;
-    private final Rect rotateCropRect = new Rect();
     private float degreesFrom = 0.0f, degreesTo = 0.0f;
     private ValueAnimator rotateAnim;
 
     /**
      * 更新可见图片的位置
      *
-     * @param dx     x偏移量
-     * @param dy     y偏移量
-     * @param strict 严格模式 如果为true则还原边界值，不做刷新
-     * @return true表示未到边界值还能移动 false表示已经到了边界
-     */
-    private void translateVisibleRect(int dx, int dy, boolean strict) {
-        Rect transformVisibleRect = getTransformVisibleRect();
-        tempRect.set(transformVisibleRect);
-
-        tempRect.left += dx;
-        tempRect.right += dx;
-        tempRect.top += dy;
-        tempRect.bottom += dy;
-
-        // 图片往左移动 - 判断右边界
-        if (dx < 0) {
-            if (tempRect.right <= cropRect.right) {
-                if (strict) {
-                    tempRect.right = cropRect.right;
-                    tempRect.left = tempRect.right - transformVisibleRect.width();
-                }
+     * @param dx     x偏移量，屏幕坐标
+     * @param dy     y偏移量，屏幕坐标
+     * @param strict 严格模式 如果为true则还原边界值
+     */
+    private void translateVisibleRect(float dx, float dy, boolean strict) {
+        if (strict) {
+            RectF transformVisibleRect = getTransformVisibleRect();
+            // 图片往左移动 - 判断右边界
+            if (dx < 0) {
+                if (transformVisibleRect.right + dx <= cropRect.right) dx = cropRect.right - transformVisibleRect.right;
             }
-        }
-        // 图片往右移动 - 判断左边界
-        else {
-            if (tempRect.left >= cropRect.left) {
-                if (strict) {
-                    tempRect.left = cropRect.left;
-                    tempRect.right = tempRect.left + transformVisibleRect.width();
-                }
+            // 图片往右移动 - 判断左边界
+            else {
+                if (transformVisibleRect.left + dx >= cropRect.left) dx = cropRect.left - transformVisibleRect.left;
             }
-        }
-
-        // 图片往上移动 - 判断下边界
-        if (dy < 0) {
-            if (tempRect.bottom <= cropRect.bottom) {
-                if (strict) {
-                    tempRect.bottom = cropRect.bottom;
-                    tempRect.top = tempRect.bottom - transformVisibleRect.height();
-                }
+            // 图片往上移动 - 判断下边界
+            if (dy < 0) {
+                if (transformVisibleRect.bottom + dy <= cropRect.bottom) dy = cropRect.bottom - transformVisibleRect.bottom;
             }
-        }
-        // 图片往下移动 - 判断上边界
-        else {
-            if (tempRect.top >= cropRect.top) {
-                if (strict) {
-                    tempRect.top = cropRect.top;
-                    tempRect.bottom = tempRect.top + transformVisibleRect.height();
-                }
+            // 图片往下移动 - 判断上边界
+            else {
+                if (transformVisibleRect.top + dy >= cropRect.top) dy = cropRect.top - transformVisibleRect.top;
             }
         }
-
-        Rect restoreVisibleRect = restoreVisibleRect(tempRect);
-        visibleRect.set(restoreVisibleRect);
+        offsetVisibleRect(visibleRect, dx, dy);
 
         // 坐标改变，记得重绘视图
-        invalidate();
+        invalidateImage();
     }
 
     /**
@@ -760,44 +1154,62 @@ public class CropPhotoView extends View {
      * 在这需要限制最大尺寸！
      *
      * @param scale 缩放比例
+     * @param dx    x偏移量，屏幕坐标
+     * @param dy    y偏移量，屏幕坐标
      */
     private void scaleAndTranslateVisibleRect(float scale, float dx, float dy) {
         // 限制最大尺寸
         float maxScale = calculateMaxScale();
         scale = Math.min(maxScale, scale);
 
-        Rect transformVisibleRect = getTransformVisibleRect();
-        tempRect.set(transformVisibleRect);
-        // 缩放中心始终为裁剪区域的中心
-        int cx = cropRect.centerX();
-        int cy = cropRect.centerY();
+        // 缩放中心与旋转中心都是裁剪区域的中心，两者可以交换顺序，直接在未旋转的坐标中缩放
+        scaleVisibleRect(visibleRect, visibleRect, scale);
+        offsetVisibleRect(visibleRect, dx, dy);
 
-        tempMatrix.reset();
-        tempMatrix.setScale(scale, scale, cx, cy);
-        tempMatrix.postTranslate(dx, dy);
-        tempRectF.set(tempRect);
-        tempMatrix.mapRect(tempRectF);
-        tempRect.set(
-                (int) Math.ceil(tempRectF.left),
-                (int) Math.ceil(tempRectF.top),
-                (int) Math.ceil(tempRectF.right),
-                (int) Math.ceil(tempRectF.bottom));
+        // 坐标改变记得重绘视图
+        invalidateImage();
+    }
 
-        Rect restoreVisibleRect = restoreVisibleRect(tempRect);
-        visibleRect.set(restoreVisibleRect);
+    /**
+     * 以裁剪区域中心缩放
+     *
+     * @param src   原区域
+     * @param out   输出区域，可以与原区域相同
+     * @param scale 缩放比例
+     */
+    private void scaleVisibleRect(RectF src, RectF out, float scale) {
+        float cx = cropRect.centerX();
+        float cy = cropRect.centerY();
+        out.set(cx + (src.left - cx) * scale,
+                cy + (src.top - cy) * scale,
+                cx + (src.right - cx) * scale,
+                cy + (src.bottom - cy) * scale);
+    }
 
-        // 坐标改变记得重绘视图
-        invalidate();
+    /**
+     * 平移未旋转的区域
+     *
+     * @param rect 未旋转的区域
+     * @param dx   x偏移量，屏幕坐标
+     * @param dy   y偏移量，屏幕坐标
+     */
+    private void offsetVisibleRect(RectF rect, float dx, float dy) {
+        // 屏幕上的平移量 -> 未旋转坐标中的平移量
+        updateRotateMatrix();
+        tempVector[0] = dx;
+        tempVector[1] = dy;
+        rotateInverseMatrix.mapVectors(tempVector);
+        rect.offset(tempVector[0], tempVector[1]);
     }
 
     /**
      * @return 最大缩放比例
      */
     private float calculateMaxScale() {
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
 
-        float scaleW = maxVisibleWidth * 1f / transformVisibleRect.width();
-        float scaleH = maxVisibleHeight * 1f / transformVisibleRect.height();
+        float scaleW = maxVisibleWidth / transformVisibleRect.width();
+        float scaleH = maxVisibleHeight / transformVisibleRect.height();
         return Math.max(scaleW, scaleH);
     }
 
@@ -805,15 +1217,15 @@ public class CropPhotoView extends View {
      * @return true表示裁剪区域在可见范围内 false表示没有
      */
     private boolean cropInVisible() {
-        Rect transformVisibleRect = getTransformVisibleRect();
-        return transformVisibleRect.contains(cropRect);
+        RectF transformVisibleRect = getTransformVisibleRect();
+        return transformVisibleRect.contains(cropRect.left, cropRect.top, cropRect.right, cropRect.bottom);
     }
 
     /**
      * @return 可以往右滑
      */
     private boolean canScrollRight() {
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
         return transformVisibleRect.left < cropRect.left;
     }
 
@@ -821,7 +1233,7 @@ public class CropPhotoView extends View {
      * @return 可以往左滑
      */
     private boolean canScrollLeft() {
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
         return cropRect.right < transformVisibleRect.right;
     }
 
@@ -829,7 +1241,7 @@ public class CropPhotoView extends View {
      * @return 可以往上滑
      */
     private boolean canScrollTop() {
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
         return cropRect.bottom < transformVisibleRect.bottom;
     }
 
@@ -837,7 +1249,7 @@ public class CropPhotoView extends View {
      * @return 可以往下滑
      */
     private boolean canScrollBottom() {
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
         return transformVisibleRect.top < cropRect.top;
     }
 
@@ -847,7 +1259,7 @@ public class CropPhotoView extends View {
      * @return true表示尺寸过小了
      */
     private boolean tooSmall() {
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
         return transformVisibleRect.width() < cropRect.width()
                 || transformVisibleRect.height() < cropRect.height();
     }
@@ -855,36 +1267,25 @@ public class CropPhotoView extends View {
     /**
      * @return 经过矩阵旋转，跟屏幕显示区域一致的visibleRect对象
      */
-    private Rect getTransformVisibleRect() {
-        tempMatrix.reset();
-        transformRect.set(visibleRect);
-        tempMatrix.setRotate(currentDegrees, cropRect.centerX(), cropRect.centerY());
-        tempRectF.set(transformRect);
-        tempMatrix.mapRect(tempRectF);
-        transformRect.set(
-                (int) Math.ceil(tempRectF.left),
-                (int) Math.ceil(tempRectF.top),
-                (int) Math.ceil(tempRectF.right),
-                (int) Math.ceil(tempRectF.bottom));
+    private RectF getTransformVisibleRect() {
+        updateRotateMatrix();
+        rotateMatrix.mapRect(transformRect, visibleRect);
         return transformRect;
     }
 
     /**
-     * @param transformRect 跟屏幕显示区域一致的visibleRect
-     * @return 未经过旋转的visibleRect
+     * 旋转角度或裁剪区域变化时，重新计算旋转矩阵
      */
-    private Rect restoreVisibleRect(Rect transformRect) {
-        tempMatrix.reset();
-        restoreRect.set(transformRect);
-        tempMatrix.setRotate(-currentDegrees, cropRect.centerX(), cropRect.centerY());
-        tempRectF.set(restoreRect);
-        tempMatrix.mapRect(tempRectF);
-        restoreRect.set(
-                (int) Math.ceil(tempRectF.left),
-                (int) Math.ceil(tempRectF.top),
-                (int) Math.ceil(tempRectF.right),
-                (int) Math.ceil(tempRectF.bottom));
-        return restoreRect;
+    private void updateRotateMatrix() {
+        float degrees = currentDegrees + orientationDegrees;
+        int cx = cropRect.centerX();
+        int cy = cropRect.centerY();
+        if (degrees == rotateMatrixDegrees && cx == rotateMatrixCx && cy == rotateMatrixCy) return;
+        rotateMatrixDegrees = degrees;
+        rotateMatrixCx = cx;
+        rotateMatrixCy = cy;
+        rotateMatrix.setRotate(degrees, cx, cy);
+        rotateInverseMatrix.setRotate(-degrees, cx, cy);
     }
 
     /**
@@ -895,83 +1296,88 @@ public class CropPhotoView extends View {
      * ps:尺寸过小的矫正在这里进行，尺寸最大边界的控制在{@link CropPhotoView#scaleAndTranslateVisibleRect(float, float, float)}中
      */
     private void adjustPosition() {
-        // fixme：角度为90或270度时，计算有误！
-//        if (cropInVisible()) return;
+        abortAdjusting();
 
         // 先预测一下，合理范围，无需矫正
         adjustScaleFrom = 1.0f;
         adjustScaleTo = 1.0f;
 
-        Rect transformVisibleRect = getTransformVisibleRect();
+        RectF transformVisibleRect = getTransformVisibleRect();
         // 矫正高度
         if (transformVisibleRect.height() < cropRect.height()) {
             // 尺寸过小了，得放大
-            adjustScaleTo = cropRect.height() * 1f / transformVisibleRect.height();
+            adjustScaleTo = cropRect.height() / transformVisibleRect.height();
         }
         // 矫正宽度
         if (transformVisibleRect.width() < cropRect.width()) {
             // 尺寸过小了，得放大
-            float _adjustScaleTo = cropRect.width() * 1f / transformVisibleRect.width();
+            float _adjustScaleTo = cropRect.width() / transformVisibleRect.width();
             // 取一个最大的
             adjustScaleTo = Math.max(adjustScaleTo, _adjustScaleTo);
         }
 
-        // 矫正缩放 - 矫正旋转
-        tempRectF.set(transformVisibleRect);
-        tempMatrix.reset();
-        tempMatrix.setScale(adjustScaleTo, adjustScaleTo, cropRect.centerX(), cropRect.centerY());
-        tempMatrix.mapRect(tempRectF);
-        tempRect.set(
-                (int) Math.ceil(tempRectF.left),
-                (int) Math.ceil(tempRectF.top),
-                (int) Math.ceil(tempRectF.right),
-                (int) Math.ceil(tempRectF.bottom));
+        // 矫正缩放 - 以裁剪区域中心缩放，与旋转无关
+        float cx = cropRect.centerX();
+        float cy = cropRect.centerY();
+        float left = cx + (transformVisibleRect.left - cx) * adjustScaleTo;
+        float top = cy + (transformVisibleRect.top - cy) * adjustScaleTo;
+        float right = cx + (transformVisibleRect.right - cx) * adjustScaleTo;
+        float bottom = cy + (transformVisibleRect.bottom - cy) * adjustScaleTo;
 
         // 矫正偏移值还原
-        adjustX = 0;
-        adjustY = 0;
+        adjustX = 0f;
+        adjustY = 0f;
 
         // 左边界需要矫正
-        if (tempRect.left > cropRect.left) {
-            adjustX = -(tempRect.left - cropRect.left);
+        if (left > cropRect.left) {
+            adjustX = -(left - cropRect.left);
         }
         // 右边界需要矫正
-        if (tempRect.right < cropRect.right) {
-            adjustX = (cropRect.right - tempRect.right);
+        if (right < cropRect.right) {
+            adjustX = (cropRect.right - right);
         }
         // 上边界需要矫正
-        if (tempRect.top > cropRect.top) {
-            adjustY = -(tempRect.top - cropRect.top);
+        if (top > cropRect.top) {
+            adjustY = -(top - cropRect.top);
         }
         // 下边界需要矫正
-        if (tempRect.bottom < cropRect.bottom) {
-            adjustY = (cropRect.bottom - tempRect.bottom);
+        if (bottom < cropRect.bottom) {
+            adjustY = (cropRect.bottom - bottom);
         }
 
-        // 矫正值计算完毕，保存动画基准区域
-        adjustRect.set(transformVisibleRect);
+        // 矫正值计算完毕，保存动画基准区域 - 未旋转的坐标
+        adjustRect.set(visibleRect);
 
         // 动画矫正位置
-        adjustAnim = ValueAnimator.ofFloat(0.0f, 1.0f);
-        adjustAnim.setDuration(200);
-        adjustAnim.setInterpolator(new AccelerateDecelerateInterpolator());
-        adjustAnim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                float progress = (float) animation.getAnimatedValue();
-                onAdjusting(progress);
-            }
-        });
-        adjustAnim.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                super.onAnimationEnd(animation);
-                onAdjusting(1.0f);
-            }
-        });
+        if (adjustAnim == null) {
+            adjustAnim = ValueAnimator.ofFloat(0.0f, 1.0f);
+            adjustAnim.setDuration(200);
+            adjustAnim.setInterpolator(new AccelerateDecelerateInterpolator());
+            adjustAnim.addUpdateListener(adjustUpdateListener);
+            adjustAnim.addListener(adjustEndListener);
+        }
+        beginInteraction(CropFrameMetrics.Interaction.ADJUST);
         adjustAnim.start();
     }
 
+    private final ValueAnimator.AnimatorUpdateListener adjustUpdateListener = new ValueAnimator.AnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation) {
+            // 取插值后的进度，避免getAnimatedValue每帧装箱
+            float progress = animation.getAnimatedFraction();
+            onAdjusting(progress);
+        }
+    };
+
+    private final AnimatorListenerAdapter adjustEndListener = new AnimatorListenerAdapter() {
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            super.onAnimationEnd(animation);
+            onAdjusting(1.0f);
+            endInteraction(CropFrameMetrics.Interaction.ADJUST);
+        }
+    };
+
     /**
      * 矫正中...
      *
@@ -981,35 +1387,25 @@ public class CropPhotoView extends View {
         float scale = adjustScaleFrom + progress * (adjustScaleTo - adjustScaleFrom);
         float transX = progress * adjustX;
         float transY = progress * adjustY;
-        // 拿基准区域做举证变换
-        tempRectF.set(adjustRect);
-        // 矩阵变换顺序 - 先缩放 再平移
-        tempMatrix.reset();
-        tempMatrix.setScale(scale, scale, cropRect.centerX(), cropRect.centerY());
-        tempMatrix.postTranslate(transX, transY);
-        tempMatrix.mapRect(tempRectF);
-        // 变换好的值，直接给可见区域，因为adjustRect基准区域未变，所以这里可以直接赋值
-        tempRect.set(
-                (int) Math.ceil(tempRectF.left),
-                (int) Math.ceil(tempRectF.top),
-                (int) Math.ceil(tempRectF.right),
-                (int) Math.ceil(tempRectF.bottom));
-
-        Rect restoreVisibleRect = restoreVisibleRect(tempRect);
-        visibleRect.set(restoreVisibleRect);
+        // 拿基准区域做变换 - 先缩放 再平移，因为adjustRect基准区域未变，所以这里可以直接赋值
+        Trace.beginSection(TRACE_TRANSFORM);
+        try {
+            scaleVisibleRect(adjustRect, visibleRect, scale);
+            offsetVisibleRect(visibleRect, transX, transY);
+        } finally {
+            Trace.endSection();
+        }
 
-        invalidate();
+        invalidateImage();
     }
 
     /**
      * 中止矫正
      */
     private void abortAdjusting() {
-        if (adjustAnim != null) {
+        if (adjustAnim != null && adjustAnim.isStarted()) {
+            // 取消时直接到达矫正后的位置
             adjustAnim.cancel();
-            adjustAnim.removeAllListeners();
-            adjustAnim.removeAllUpdateListeners();
-            adjustAnim = null;
         }
     }
 
@@ -1017,61 +1413,56 @@ public class CropPhotoView extends View {
         // 完成老动画
         if (rotateAnim != null && rotateAnim.isRunning()) {
             rotateAnim.cancel();
-            rotateAnim.removeAllUpdateListeners();
-            rotateAnim.removeAllListeners();
         }
 
-        float postDegrees = 0.0f;
-        switch (degrees) {
-            case DEGREES_0:
-                postDegrees = 0.0f;
-                break;
-            case DEGREES_90:
-                postDegrees = 90.0f;
-                break;
-            case DEGREES_180:
-                postDegrees = 180.0f;
-                break;
-            case DEGREES_270:
-                postDegrees = 270.0f;
-                break;
-            case DEGREES_360:
-                postDegrees = 360.0f;
-                break;
-        }
+        float postDegrees = degreesOf(degrees);
         // 计算旋转范围
         if (currentDegrees == 360 && postDegrees == 0f) currentDegrees = 0f; // 此情况不用旋转
         degreesFrom = currentDegrees;
         degreesTo = postDegrees;
         currentDegreesEnum = degrees;
 
-        rotateAnim = ValueAnimator.ofFloat(degreesFrom, degreesTo);
-        rotateAnim.setDuration(200);
-        rotateAnim.setInterpolator(new AccelerateInterpolator());
-        rotateAnim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                // 更新当前角度，draw里面有用
-                currentDegrees = (float) animation.getAnimatedValue();
-                // 记得重绘视图
-                invalidate();
-            }
-        });
-        rotateAnim.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                super.onAnimationEnd(animation);
-                // 裁剪区域不是正方形（cropRatio != 1.0）的旋转，需要再矫正位置
-                adjustPosition();
-            }
-        });
+        if (rotateAnim == null) {
+            rotateAnim = ValueAnimator.ofFloat(0.0f, 1.0f);
+            rotateAnim.setDuration(200);
+            rotateAnim.setInterpolator(new AccelerateInterpolator());
+            rotateAnim.addUpdateListener(rotateUpdateListener);
+            rotateAnim.addListener(rotateEndListener);
+        }
+        beginInteraction(CropFrameMetrics.Interaction.ROTATE);
         rotateAnim.start();
     }
 
+    private final ValueAnimator.AnimatorUpdateListener rotateUpdateListener = new ValueAnimator.AnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation) {
+            // 更新当前角度，draw里面有用
+            currentDegrees = degreesFrom + animation.getAnimatedFraction() * (degreesTo - degreesFrom);
+            // 记得重绘视图
+            invalidateImage();
+        }
+    };
+
+    private final AnimatorListenerAdapter rotateEndListener = new AnimatorListenerAdapter() {
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            super.onAnimationEnd(animation);
+            endInteraction(CropFrameMetrics.Interaction.ROTATE);
+            // 裁剪区域不是正方形（cropRatio != 1.0）的旋转，需要再矫正位置
+            adjustPosition();
+        }
+    };
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        if (frameTracker != null) frameTracker.detach();
+        if (touchFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(touchFrameCallback);
+            touchFrameScheduled = false;
+        }
         releaseVelocityTracker();
+        setTileSource(null);
     }
 
 
@@ -1081,4 +1472,11 @@ public class CropPhotoView extends View {
     public interface OnImageCropCallback {
         void onImageCrop(Bitmap bitmap);
     }
+
+    /**
+     * 帧耗时统计回调 - 主线程，每次交互结束时回调一次
+     */
+    public interface OnFrameMetricsListener {
+        void onFrameMetrics(@NonNull CropFrameMetrics metrics);
+    }
 }
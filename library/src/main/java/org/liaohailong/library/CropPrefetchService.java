@@ -0,0 +1,36 @@
+package org.liaohailong.library;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 21:45
+ * Describe: 预加载服务 - 与裁剪界面运行在同一进程，预加载的结果才能被界面直接使用
+ * <p>
+ * 由{@link CropImageActivity#prefetch(android.content.Context, CropOptions)}启动，所有预加载结束后自动停止
+ */
+public class CropPrefetchService extends Service {
+    static final String KEY_OPTIONS = "KEY_OPTIONS";
+
+    @Override
+    public int onStartCommand(@Nullable Intent intent, int flags, final int startId) {
+        CropOptions options = intent != null ? intent.getParcelableExtra(KEY_OPTIONS) : null;
+        if (options == null) {
+            stopSelfResult(startId);
+            return START_NOT_STICKY;
+        }
+        // 只有最近一次启动对应的预加载结束时才会停止
+        CropPrefetcher.start(this, options, () -> stopSelfResult(startId));
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
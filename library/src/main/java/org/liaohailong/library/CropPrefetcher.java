@@ -0,0 +1,205 @@
+package org.liaohailong.library;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 21:30
+ * Describe: 预加载 - 裁剪界面启动之前，在裁剪进程中读取原图尺寸、EXIF并解码预览图，结果放入{@link PreviewCache}
+ * <p>
+ * 裁剪界面加载前先等待同一张图片、同样配置进行中的预加载，之后直接命中缓存；预加载还没开始执行时直接取消，由界面自己加载
+ */
+final class CropPrefetcher {
+    private static final String TAG = "CropPrefetcher";
+
+    /**
+     * 等待预加载时检查取消的间隔
+     */
+    private static final long AWAIT_INTERVAL_MS = 50;
+
+    /**
+     * 原图 + 预览图相关的配置 -> 进行中的预加载
+     * <p>
+     * 同一张图片配置不同时得到的是另一个预览图，不能互相替代
+     */
+    private static final Map<String, Prefetch> inFlight = new HashMap<>();
+
+    private CropPrefetcher() {
+    }
+
+    /**
+     * 开始预加载，同一张图片已经在预加载时忽略 - 裁剪进程
+     *
+     * @param context 上下文
+     * @param options 裁剪配置信息
+     * @param onDone  预加载结束时回调，子线程，可以为null
+     */
+    static void start(@NonNull Context context, @NonNull final CropOptions options, @Nullable final Runnable onDone) {
+        final Context appContext = context.getApplicationContext();
+        final String key = keyOf(appContext, options);
+        final Prefetch prefetch = new Prefetch();
+        synchronized (inFlight) {
+            if (inFlight.containsKey(key)) {
+                if (onDone != null) onDone.run();
+                return;
+            }
+            inFlight.put(key, prefetch);
+        }
+        prefetch.task = CropExecutors.execute(CropExecutors.Priority.IMMEDIATE, task -> {
+            try {
+                synchronized (inFlight) {
+                    // 界面已经接手
+                    if (prefetch.cancelled || task.isCancelled()) return;
+                    prefetch.started = true;
+                }
+                prefetch(appContext, options, task, prefetch);
+            } catch (Exception e) {
+                Log.i(TAG, "预加载失败：" + e.toString());
+            } finally {
+                finish(key, prefetch);
+                if (onDone != null) onDone.run();
+            }
+        }, () -> {
+            // 排队期间被界面接手，任务内容不会执行
+            finish(key, prefetch);
+            if (onDone != null) onDone.run();
+        });
+    }
+
+    /**
+     * 等待同一张图片、同样配置进行中的预加载结束 - 子线程
+     *
+     * @param context 上下文
+     * @param options 裁剪配置信息
+     * @param task    当前任务，取消时不再等待
+     */
+    static void await(@NonNull Context context, @NonNull CropOptions options, @NonNull CropTask task) {
+        String key = keyOf(context, options);
+        Prefetch prefetch;
+        synchronized (inFlight) {
+            prefetch = inFlight.get(key);
+            if (prefetch == null) return;
+            if (!prefetch.started) {
+                // 还在排队，等下去不会比自己加载更快
+                inFlight.remove(key);
+                prefetch.cancelled = true;
+                if (prefetch.task != null) prefetch.task.cancel();
+                return;
+            }
+        }
+        try {
+            while (!prefetch.done.await(AWAIT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (task.isCancelled()) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void prefetch(@NonNull Context context,
+                                 @NonNull CropOptions options,
+                                 @NonNull CropTask task,
+                                 @NonNull Prefetch prefetch) throws Exception {
+        Uri source = options.getSource();
+        ContentResolver resolver = context.getContentResolver();
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(source, "r");
+        if (pfd == null) return;
+        try {
+            // 无法确定文件版本时不能缓存，界面也就用不上预加载的结果
+            String sourceKey = PreviewCache.keyOf(source, pfd);
+            if (sourceKey == null) return;
+
+            PreviewCache cache = PreviewCache.getInstance(context);
+            PreviewCache.Source info = cache.getSource(sourceKey);
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            if (info != null) {
+                bounds.outWidth = info.width;
+                bounds.outHeight = info.height;
+                bounds.outMimeType = info.mimeType;
+            } else {
+                bounds.inJustDecodeBounds = true;
+                task.setDecoding(bounds);
+                BitmapFactory.decodeFileDescriptor(pfd.getFileDescriptor(), null, bounds);
+                task.setDecoding(null);
+                if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return;
+                ExifInterface exif = CropOutputWriter.readExif(resolver, source);
+                cache.putSource(sourceKey, new PreviewCache.Source(
+                        bounds.outWidth, bounds.outHeight, bounds.outMimeType, exif));
+            }
+
+            // 解码参数与原图信息一起缓存，界面直接沿用，不会因为预览图占用了内存而算出另一个尺寸
+            String previewKey = PreviewCache.keyOf(context, sourceKey, options);
+            DecodeStrategy.Spec spec = cache.specOf(context, sourceKey, previewKey, bounds, options);
+            if (cache.contains(previewKey) || task.isCancelled()) return;
+
+            PreviewDiskCache diskCache = PreviewDiskCache.getInstance(context);
+            PreviewDiskCache.Pending pending = null;
+            Bitmap bitmap = diskCache.get(previewKey, PreviewDiskCache.maxBytesOf(bounds.outWidth, bounds.outHeight, spec));
+            if (bitmap == null) {
+                bounds.inSampleSize = spec.inSampleSize;
+                bounds.inPreferredConfig = spec.config;
+                bounds.inJustDecodeBounds = false;
+                bitmap = CropImageActivity.decodeWithPool(task, pfd.getFileDescriptor(), bounds, spec);
+                if (bitmap == null) return;
+                pending = diskCache.prepare(previewKey, bitmap);
+            }
+            cache.put(previewKey, bitmap);
+            // 界面不需要等磁盘缓存落盘
+            prefetch.done.countDown();
+            if (pending != null) pending.commit();
+        } finally {
+            try {
+                pfd.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 进行中的预加载的键 - 与{@link PreviewCache#keyOf(Context, String, CropOptions)}使用同样的配置，
+     * 打开原图之前就能确定
+     */
+    @NonNull
+    private static String keyOf(@NonNull Context context, @NonNull CropOptions options) {
+        return options.getSource() + PreviewCache.optionsKeyOf(context, options);
+    }
+
+    private static void finish(@NonNull String key, @NonNull Prefetch prefetch) {
+        synchronized (inFlight) {
+            if (inFlight.get(key) == prefetch) inFlight.remove(key);
+        }
+        prefetch.done.countDown();
+    }
+
+    /**
+     * 一次预加载
+     */
+    private static final class Prefetch {
+        final CountDownLatch done = new CountDownLatch(1);
+        /**
+         * 已经开始执行，界面需要等待结果 - inFlight锁内访问
+         */
+        boolean started = false;
+        /**
+         * 开始执行前被界面接手 - inFlight锁内访问
+         */
+        boolean cancelled = false;
+        volatile CropTask task = null;
+    }
+}
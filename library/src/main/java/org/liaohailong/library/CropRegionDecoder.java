@@ -0,0 +1,211 @@
+package org.liaohailong.library;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/12 10:46
+ * Describe: 从原图中只解码裁剪区域，输出不受预览图分辨率限制
+ */
+final class CropRegionDecoder {
+
+    private CropRegionDecoder() {
+    }
+
+    /**
+     * 按原图分辨率导出裁剪结果 - 子线程
+     *
+     * @param resolver     内容解析器
+     * @param source       原图
+     * @param region       裁剪区域在原图中的位置，取值[0,1]，未旋转的坐标
+     * @param degrees      顺时针旋转角度，只支持90的倍数
+     * @param outputWidth  输出宽度，小于等于0表示按原图分辨率输出
+     * @param outputHeight 输出高度，小于等于0表示按原图分辨率输出
+     * @return 裁剪结果
+     * @throws IOException 原图无法打开，或格式不支持区域解码
+     */
+    @NonNull
+    static Bitmap decode(@NonNull ContentResolver resolver,
+                         @NonNull Uri source,
+                         @NonNull RectF region,
+                         int degrees,
+                         int outputWidth,
+                         int outputHeight) throws IOException {
+        ParcelFileDescriptor pfd = openSource(resolver, source);
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(pfd.getFileDescriptor(), false);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+
+            // 归一化区域 -> 原图像素区域
+            Rect rect = new Rect(
+                    Math.round(region.left * width),
+                    Math.round(region.top * height),
+                    Math.round(region.right * width),
+                    Math.round(region.bottom * height));
+            return decode(decoder, rect, degrees, outputWidth, outputHeight);
+        } finally {
+            release(decoder, pfd);
+        }
+    }
+
+    /**
+     * 按原图分辨率导出裁剪结果 - 子线程
+     *
+     * @param resolver     内容解析器
+     * @param source       原图
+     * @param rect         裁剪区域，原图像素坐标，未旋转
+     * @param degrees      顺时针旋转角度，只支持90的倍数
+     * @param outputWidth  输出宽度，小于等于0表示按原图分辨率输出
+     * @param outputHeight 输出高度，小于等于0表示按原图分辨率输出
+     * @return 裁剪结果
+     * @throws IOException 原图无法打开，或格式不支持区域解码
+     */
+    @NonNull
+    static Bitmap decode(@NonNull ContentResolver resolver,
+                         @NonNull Uri source,
+                         @NonNull Rect rect,
+                         int degrees,
+                         int outputWidth,
+                         int outputHeight) throws IOException {
+        ParcelFileDescriptor pfd = openSource(resolver, source);
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(pfd.getFileDescriptor(), false);
+            return decode(decoder, new Rect(rect), degrees, outputWidth, outputHeight);
+        } finally {
+            release(decoder, pfd);
+        }
+    }
+
+    @NonNull
+    private static Bitmap decode(@NonNull BitmapRegionDecoder decoder,
+                                 @NonNull Rect rect,
+                                 int degrees,
+                                 int outputWidth,
+                                 int outputHeight) throws IOException {
+        if (!rect.intersect(0, 0, decoder.getWidth(), decoder.getHeight()) || rect.isEmpty()) {
+            throw new IOException("crop region out of bounds: " + rect);
+        }
+
+        // 未指定输出尺寸，按原图分辨率输出
+        boolean swap = CropRenderer.isSwapped(degrees);
+        if (outputWidth <= 0 || outputHeight <= 0) {
+            outputWidth = swap ? rect.height() : rect.width();
+            outputHeight = swap ? rect.width() : rect.height();
+        }
+
+        // 采样率以输出尺寸为准，旋转90或270度时宽高互换
+        int reqWidth = swap ? outputHeight : outputWidth;
+        int reqHeight = swap ? outputWidth : outputHeight;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = calculateInSampleSize(rect.width(), rect.height(), reqWidth, reqHeight);
+        options.inMutable = true;
+        // 复用池中的位图内存
+        BitmapPool pool = BitmapPool.getInstance();
+        int sampleWidth = (rect.width() + options.inSampleSize - 1) / options.inSampleSize;
+        int sampleHeight = (rect.height() + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = pool.getDirty(sampleWidth, sampleHeight, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(rect, options);
+        } catch (IllegalArgumentException e) {
+            // 不满足复用条件，重新分配
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decoder.decodeRegion(rect, options);
+        }
+        if (bitmap == null) throw new IOException("decode region failed: " + rect);
+
+        // decodeRegion不会改变inBitmap的尺寸，采样时JPEG向上取整，PNG、WebP等向下取整，
+        // 实际解码的区域可能比复用的位图小一行、一列，只渲染解码出的部分
+        int decodedWidth = rect.width() / options.inSampleSize;
+        int decodedHeight = rect.height() / options.inSampleSize;
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            decodedWidth = options.outWidth;
+            decodedHeight = options.outHeight;
+        }
+        decodedWidth = Math.max(1, Math.min(decodedWidth, bitmap.getWidth()));
+        decodedHeight = Math.max(1, Math.min(decodedHeight, bitmap.getHeight()));
+        fillEdges(bitmap, decodedWidth, decodedHeight);
+
+        RectF region = new RectF(0, 0, decodedWidth, decodedHeight);
+        Bitmap output = CropRenderer.render(bitmap, region, degrees, outputWidth, outputHeight);
+        pool.put(bitmap);
+        return output;
+    }
+
+    /**
+     * 解码区域之外的行列是复用位图中的旧像素，用边缘像素覆盖，缩放时采样到区域外也不会混入旧像素
+     *
+     * @param bitmap 区域解码结果
+     * @param width  实际解码的宽度
+     * @param height 实际解码的高度
+     */
+    private static void fillEdges(@NonNull Bitmap bitmap, int width, int height) {
+        int bitmapWidth = bitmap.getWidth();
+        int bitmapHeight = bitmap.getHeight();
+        if (width < bitmapWidth) {
+            int[] column = new int[height];
+            bitmap.getPixels(column, 0, 1, width - 1, 0, 1, height);
+            for (int x = width; x < bitmapWidth; x++) {
+                bitmap.setPixels(column, 0, 1, x, 0, 1, height);
+            }
+        }
+        if (height < bitmapHeight) {
+            int[] row = new int[bitmapWidth];
+            bitmap.getPixels(row, 0, bitmapWidth, 0, height - 1, bitmapWidth, 1);
+            for (int y = height; y < bitmapHeight; y++) {
+                bitmap.setPixels(row, 0, bitmapWidth, 0, y, bitmapWidth, 1);
+            }
+        }
+    }
+
+    @NonNull
+    private static ParcelFileDescriptor openSource(@NonNull ContentResolver resolver,
+                                                   @NonNull Uri source) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(source, "r");
+        if (pfd == null) throw new FileNotFoundException("source not found: " + source);
+        return pfd;
+    }
+
+    private static void release(BitmapRegionDecoder decoder, ParcelFileDescriptor pfd) {
+        if (decoder != null) decoder.recycle();
+        try {
+            pfd.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 解码器只支持2的幂次采样，取不小于输出尺寸的最大采样率
+     *
+     * @param width     区域宽度
+     * @param height    区域高度
+     * @param reqWidth  输出宽度
+     * @param reqHeight 输出高度
+     * @return inSampleSize
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,109 @@
+package org.liaohailong.library;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/12 10:21
+ * Describe: 将位图的指定区域旋转、缩放后绘制到输出位图上
+ */
+final class CropRenderer {
+
+    private CropRenderer() {
+    }
+
+    /**
+     * 渲染裁剪结果 - 需要缩放时先由{@link Resampler}裁剪、缩放到未旋转的输出尺寸，再1:1旋转；
+     * 双线性过滤缩小超过一半时会跳过源像素，产生锯齿
+     *
+     * @param src          源位图
+     * @param region       源位图中的裁剪区域（未旋转的坐标），null表示整张位图
+     * @param degrees      顺时针旋转角度，只支持90的倍数
+     * @param outputWidth  输出宽度
+     * @param outputHeight 输出高度
+     * @return 输出位图
+     */
+    @NonNull
+    static Bitmap render(@NonNull Bitmap src,
+                         @Nullable RectF region,
+                         int degrees,
+                         int outputWidth,
+                         int outputHeight) {
+        RectF area = region != null ? region : new RectF(0, 0, src.getWidth(), src.getHeight());
+        boolean swap = isSwapped(degrees);
+        int scaledWidth = swap ? outputHeight : outputWidth;
+        int scaledHeight = swap ? outputWidth : outputHeight;
+        if (Resampler.needsResample(area, scaledWidth, scaledHeight)) {
+            Bitmap scaled = Resampler.resample(src, area, scaledWidth, scaledHeight);
+            if (degrees % 360 == 0) return scaled;
+            Bitmap output = draw(scaled, new RectF(0, 0, scaledWidth, scaledHeight), degrees, outputWidth, outputHeight);
+            BitmapPool.getInstance().put(scaled);
+            return output;
+        }
+        return draw(src, area, degrees, outputWidth, outputHeight);
+    }
+
+    /**
+     * 旋转、平移、裁剪、缩放合成一个矩阵，一次绘制完成
+     */
+    @NonNull
+    private static Bitmap draw(@NonNull Bitmap src,
+                               @NonNull RectF area,
+                               int degrees,
+                               int outputWidth,
+                               int outputHeight) {
+        Bitmap output = BitmapPool.getInstance().get(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+        Matrix matrix = new Matrix();
+        buildMatrix(area, degrees, outputWidth, outputHeight, matrix);
+
+        Canvas canvas = new Canvas(output);
+        Paint paint = new Paint();
+        // 抗锯齿
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
+        canvas.drawBitmap(src, matrix, paint);
+        canvas.setBitmap(null);
+        return output;
+    }
+
+    /**
+     * 计算 源位图区域 -> 输出位图 的变换矩阵
+     *
+     * @param region       源位图中的裁剪区域（未旋转的坐标）
+     * @param degrees      顺时针旋转角度，只支持90的倍数
+     * @param outputWidth  输出宽度
+     * @param outputHeight 输出高度
+     * @param out          输出矩阵
+     */
+    static void buildMatrix(@NonNull RectF region,
+                            int degrees,
+                            int outputWidth,
+                            int outputHeight,
+                            @NonNull Matrix out) {
+        // 旋转90或270度时，宽高互换
+        boolean swap = isSwapped(degrees);
+        float rotateWidth = swap ? region.height() : region.width();
+        float rotateHeight = swap ? region.width() : region.height();
+
+        // 矩阵变换顺序 - 区域中心移至原点 -> 旋转 -> 缩放 -> 平移至输出中心
+        out.setTranslate(-region.centerX(), -region.centerY());
+        out.postRotate(degrees);
+        out.postScale(outputWidth / rotateWidth, outputHeight / rotateHeight);
+        out.postTranslate(outputWidth / 2f, outputHeight / 2f);
+    }
+
+    /**
+     * @param degrees 旋转角度
+     * @return true表示旋转后宽高互换
+     */
+    static boolean isSwapped(int degrees) {
+        return ((degrees / 90) & 1) == 1;
+    }
+}
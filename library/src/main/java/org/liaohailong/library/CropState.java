@@ -0,0 +1,148 @@
+package org.liaohailong.library;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/17 16:40
+ * Describe: 裁剪状态快照 - 在主线程一次取出，之后的渲染、导出只读这份数据，不再访问视图
+ * <p>
+ * 通过{@link CropPhotoView#getCropState()}获取，取出时正在进行的惯性、矫正、旋转动画直接跳到结束位置
+ */
+public final class CropState implements Parcelable {
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final RectF cropRect;
+    private final int degrees;
+    private final float scale;
+
+    /**
+     * @param sourceWidth  裁剪所用位图的宽度
+     * @param sourceHeight 裁剪所用位图的高度
+     * @param cropRect     裁剪区域，位图坐标，未旋转，已限制在位图范围内
+     * @param degrees      顺时针旋转角度，含EXIF方向，只会是0、90、180、270
+     * @param scale        显示缩放比例，视图像素 / 位图像素
+     */
+    CropState(int sourceWidth, int sourceHeight, @NonNull RectF cropRect, int degrees, float scale) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.cropRect = new RectF(cropRect);
+        this.degrees = (degrees % 360 + 360) % 360;
+        this.scale = scale;
+    }
+
+    /**
+     * @return 裁剪所用位图的宽度，可能是缩小后的预览图
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * @return 裁剪所用位图的高度，可能是缩小后的预览图
+     */
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * @return 裁剪区域，位图坐标，未旋转
+     */
+    @NonNull
+    public RectF getCropRect() {
+        return new RectF(cropRect);
+    }
+
+    /**
+     * @param out 输出区域，未旋转的坐标，取值[0,1]
+     */
+    public void getNormalizedRect(@NonNull RectF out) {
+        out.set(cropRect.left / sourceWidth,
+                cropRect.top / sourceHeight,
+                cropRect.right / sourceWidth,
+                cropRect.bottom / sourceHeight);
+    }
+
+    /**
+     * 换算到另一分辨率的同一张图，如预览图 -> 原图
+     *
+     * @param width  目标宽度
+     * @param height 目标高度
+     * @param out    输出区域，目标图的像素坐标，未旋转
+     */
+    public void mapTo(int width, int height, @NonNull Rect out) {
+        out.set(Math.round(cropRect.left * width / sourceWidth),
+                Math.round(cropRect.top * height / sourceHeight),
+                Math.round(cropRect.right * width / sourceWidth),
+                Math.round(cropRect.bottom * height / sourceHeight));
+    }
+
+    /**
+     * @return 裁剪结果相对位图像素需要顺时针旋转的角度，含EXIF方向
+     */
+    public int getDegrees() {
+        return degrees;
+    }
+
+    /**
+     * @return 显示缩放比例，视图像素 / 位图像素
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CropState{" +
+                "sourceWidth=" + sourceWidth +
+                ", sourceHeight=" + sourceHeight +
+                ", cropRect=" + cropRect +
+                ", degrees=" + degrees +
+                ", scale=" + scale +
+                '}';
+    }
+
+    protected CropState(Parcel in) {
+        sourceWidth = in.readInt();
+        sourceHeight = in.readInt();
+        cropRect = new RectF(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+        degrees = in.readInt();
+        scale = in.readFloat();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(sourceWidth);
+        dest.writeInt(sourceHeight);
+        dest.writeFloat(cropRect.left);
+        dest.writeFloat(cropRect.top);
+        dest.writeFloat(cropRect.right);
+        dest.writeFloat(cropRect.bottom);
+        dest.writeInt(degrees);
+        dest.writeFloat(scale);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<CropState> CREATOR = new Creator<CropState>() {
+        @Override
+        public CropState createFromParcel(Parcel in) {
+            return new CropState(in);
+        }
+
+        @Override
+        public CropState[] newArray(int size) {
+            return new CropState[size];
+        }
+    };
+}
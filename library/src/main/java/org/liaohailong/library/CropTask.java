@@ -0,0 +1,162 @@
+package org.liaohailong.library;
+
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/17 14:10
+ * Describe: 可以取消的后台任务 - 加载、裁剪、保存都返回这个句柄
+ * <p>
+ * 取消后不会再回调；正在进行的解码通过{@link BitmapFactory.Options#requestCancelDecode()}中断，
+ * 7.0及以上系统不再支持中断解码，解码结束后立即丢弃结果
+ */
+public final class CropTask implements Runnable, Comparable<CropTask> {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * 任务内容 - 子线程
+     */
+    interface Body {
+        void run(@NonNull CropTask task);
+    }
+
+    private final CropExecutors.Priority priority;
+    private final long sequence = SEQUENCE.incrementAndGet();
+    private final Body body;
+    /**
+     * 任务内容没有执行时的清理，null表示不需要
+     */
+    private final Runnable onSkipped;
+    /**
+     * 执行或跳过只会发生一次，由先到的一方认领
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+    /**
+     * 任务结束时的回调 - this锁内访问
+     */
+    private final List<Runnable> doneListeners = new ArrayList<>();
+    /**
+     * 正在解码的参数，取消时请求中断
+     */
+    private volatile BitmapFactory.Options decoding = null;
+
+    /**
+     * @param priority  优先级
+     * @param body      任务内容
+     * @param onSkipped 任务内容没有执行时的清理，如归还交给任务的位图；
+     *                  在调用{@link #cancel()}的线程或执行线程回调，最多一次
+     */
+    CropTask(@NonNull CropExecutors.Priority priority, @NonNull Body body, @Nullable Runnable onSkipped) {
+        this.priority = priority;
+        this.body = body;
+        this.onSkipped = onSkipped;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // 开始前已经取消，清理在cancel()中完成
+            if (!claimed.compareAndSet(false, true)) return;
+            if (cancelled) {
+                skip();
+            } else {
+                body.run(this);
+            }
+        } finally {
+            decoding = null;
+            finish();
+        }
+    }
+
+    /**
+     * 取消任务，还没开始的直接跳过，正在解码的请求中断
+     * <p>
+     * 还没开始的任务立即清理，不依赖线程池之后把它取出来，自定义的线程池可能直接丢弃队列中的任务
+     */
+    public void cancel() {
+        cancelled = true;
+        if (claimed.compareAndSet(false, true)) {
+            skip();
+            finish();
+            return;
+        }
+        BitmapFactory.Options options = decoding;
+        if (options != null) options.requestCancelDecode();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true表示已经执行完，或者取消后被跳过
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 开始解码前登记解码参数，取消时可以中断 - 子线程
+     *
+     * @param options 解码参数，null表示解码结束
+     */
+    void setDecoding(@Nullable BitmapFactory.Options options) {
+        decoding = options;
+        if (options != null && cancelled) options.requestCancelDecode();
+    }
+
+    /**
+     * 任务结束后回调，已经结束的立即回调
+     * <p>
+     * 取消只是标记，正在执行的任务内容还会继续用到交给它的数据，需要等它真正结束再回收
+     *
+     * @param listener 在执行线程、调用{@link #cancel()}的线程或当前线程回调
+     */
+    void addDoneListener(@NonNull Runnable listener) {
+        synchronized (this) {
+            if (!done) {
+                doneListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private void finish() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            done = true;
+            if (doneListeners.isEmpty()) return;
+            listeners = new ArrayList<>(doneListeners);
+            doneListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private void skip() {
+        if (onSkipped != null) onSkipped.run();
+    }
+
+    /**
+     * 同优先级先提交的先执行
+     */
+    @Override
+    public int compareTo(@NonNull CropTask other) {
+        if (priority != other.priority) return priority.ordinal() - other.priority.ordinal();
+        return Long.compare(sequence, other.sequence);
+    }
+}
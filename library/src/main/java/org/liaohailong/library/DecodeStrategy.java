@@ -0,0 +1,49 @@
+package org.liaohailong.library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/16 09:40
+ * Describe: 预览图解码尺寸策略
+ * <p>
+ * 裁剪界面运行在独立进程，策略通过类名传递，实现类必须有public的无参构造函数
+ */
+public interface DecodeStrategy {
+
+    /**
+     * 计算预览图的解码参数 - 子线程
+     *
+     * @param context 上下文
+     * @param bounds  原图信息 - outWidth、outHeight、outMimeType
+     * @param options 裁剪配置信息
+     * @param out     输出解码参数
+     */
+    void calculate(@NonNull Context context,
+                   @NonNull BitmapFactory.Options bounds,
+                   @NonNull CropOptions options,
+                   @NonNull Spec out);
+
+    /**
+     * 解码参数
+     */
+    final class Spec {
+        /**
+         * 采样率，只会取2的幂次
+         */
+        public int inSampleSize = 1;
+        /**
+         * 采样之后再精确缩放到的目标尺寸，小于等于0表示只采样不缩放
+         */
+        public int targetWidth = 0;
+        public int targetHeight = 0;
+        /**
+         * 像素格式
+         */
+        public Bitmap.Config config = Bitmap.Config.ARGB_8888;
+    }
+}
@@ -0,0 +1,180 @@
+package org.liaohailong.library;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.FrameMetrics;
+import android.view.View;
+import android.view.Window;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/16 15:42
+ * Describe: 交互期间逐帧统计 - Choreographer统计主线程掉帧，7.0及以上再用FrameMetrics统计渲染耗时
+ * <p>
+ * 只在主线程使用
+ */
+final class FrameTracker implements Choreographer.FrameCallback {
+
+    private final View host;
+    private final CropPhotoView.OnFrameMetricsListener listener;
+
+    /**
+     * 当前交互，null表示空闲
+     */
+    private CropFrameMetrics.Interaction interaction = null;
+    private long frameIntervalNanos;
+    private long firstFrameNanos;
+    private long lastFrameNanos;
+    private int frameCount;
+    private int droppedFrames;
+    private long maxFrameIntervalNanos;
+
+    private int renderedFrames;
+    private int slowFrames;
+    private long maxFrameDurationNanos;
+
+    private Window window;
+    private Object frameMetricsListener;
+
+    FrameTracker(@NonNull View host, @NonNull CropPhotoView.OnFrameMetricsListener listener) {
+        this.host = host;
+        this.listener = listener;
+    }
+
+    /**
+     * 视图显示后调用，开始接收渲染耗时
+     */
+    void attach() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || window != null) return;
+        Activity activity = findActivity(host.getContext());
+        if (activity == null) return;
+        window = activity.getWindow();
+        addFrameMetricsListener();
+    }
+
+    /**
+     * 视图移除后调用
+     */
+    void detach() {
+        end(interaction);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && window != null) {
+            removeFrameMetricsListener();
+        }
+        window = null;
+    }
+
+    /**
+     * 开始一次交互，之前的交互自动结束
+     *
+     * @param interaction 交互类型
+     */
+    void begin(@NonNull CropFrameMetrics.Interaction interaction) {
+        if (this.interaction == interaction) return;
+        end(this.interaction);
+        this.interaction = interaction;
+        frameIntervalNanos = frameIntervalNanos();
+        firstFrameNanos = 0;
+        lastFrameNanos = 0;
+        frameCount = 0;
+        droppedFrames = 0;
+        maxFrameIntervalNanos = 0;
+        renderedFrames = 0;
+        slowFrames = 0;
+        maxFrameDurationNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * 结束交互并回调统计结果
+     *
+     * @param interaction 要结束的交互类型，与当前交互不同时忽略
+     */
+    void end(@Nullable CropFrameMetrics.Interaction interaction) {
+        if (interaction == null || this.interaction != interaction) return;
+        Choreographer.getInstance().removeFrameCallback(this);
+        this.interaction = null;
+        // 不足两帧没有意义
+        if (frameCount == 0) return;
+        listener.onFrameMetrics(new CropFrameMetrics(
+                interaction,
+                lastFrameNanos - firstFrameNanos,
+                frameIntervalNanos,
+                frameCount,
+                droppedFrames,
+                maxFrameIntervalNanos,
+                renderedFrames,
+                slowFrames,
+                maxFrameDurationNanos));
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (interaction == null) return;
+        if (lastFrameNanos == 0) {
+            firstFrameNanos = frameTimeNanos;
+        } else {
+            long interval = frameTimeNanos - lastFrameNanos;
+            frameCount++;
+            maxFrameIntervalNanos = Math.max(maxFrameIntervalNanos, interval);
+            // 间隔四舍五入为几个刷新周期，多出来的就是错过的帧
+            int missed = (int) ((interval + frameIntervalNanos / 2) / frameIntervalNanos) - 1;
+            if (missed > 0) droppedFrames += missed;
+        }
+        lastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.N)
+    private void addFrameMetricsListener() {
+        Window.OnFrameMetricsAvailableListener listener = new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+                if (interaction == null) return;
+                long duration = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+                renderedFrames++;
+                if (duration > frameIntervalNanos) slowFrames++;
+                maxFrameDurationNanos = Math.max(maxFrameDurationNanos, duration);
+            }
+        };
+        // 回调到主线程，与Choreographer的统计不需要加锁
+        window.addOnFrameMetricsAvailableListener(listener, new Handler(Looper.getMainLooper()));
+        frameMetricsListener = listener;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.N)
+    private void removeFrameMetricsListener() {
+        if (frameMetricsListener == null) return;
+        try {
+            window.removeOnFrameMetricsAvailableListener((Window.OnFrameMetricsAvailableListener) frameMetricsListener);
+        } catch (IllegalArgumentException e) {
+            // 窗口已经销毁，监听已被移除
+        }
+        frameMetricsListener = null;
+    }
+
+    private long frameIntervalNanos() {
+        Display display = host.getDisplay();
+        float refreshRate = display != null ? display.getRefreshRate() : 60f;
+        if (refreshRate < 1f) refreshRate = 60f;
+        return (long) (1000_000_000L / refreshRate);
+    }
+
+    @Nullable
+    private static Activity findActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) return (Activity) context;
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,958 @@
+package org.liaohailong.library;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/16 10:12
+ * Describe: JPEG无损裁剪、旋转 - 只做哈夫曼解码，在DCT系数上完成裁剪与旋转后重新熵编码，不经过像素
+ * <p>
+ * 只支持8位顺序编码（SOF0/SOF1），渐进式等其它格式抛出异常，由调用方退回普通裁剪
+ */
+final class JpegTranscoder {
+
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int DHT = 0xC4;
+    private static final int JPG = 0xC8;
+    private static final int DAC = 0xCC;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+    private static final int APP0 = 0xE0;
+    private static final int APP1 = 0xE1;
+    private static final int APP15 = 0xEF;
+    private static final int COM = 0xFE;
+
+    /**
+     * 之字形顺序 -> 自然顺序
+     */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * 哈夫曼解码查表位数
+     */
+    private static final int LOOKAHEAD = 9;
+
+    private JpegTranscoder() {
+    }
+
+    /**
+     * 无损裁剪、旋转 - 子线程
+     * <p>
+     * 裁剪区域的起始边对齐到MCU，旋转后成为输出起始边的结束边也向内对齐到MCU，所以实际区域会略有不同
+     *
+     * @param in      原图JPEG
+     * @param out     输出JPEG
+     * @param crop    裁剪区域，原图像素坐标，未旋转
+     * @param degrees 顺时针旋转角度，只支持90的倍数
+     * @return 实际裁剪的区域
+     * @throws IOException 原图格式不支持，或者读写失败
+     */
+    @NonNull
+    static Rect transcode(@NonNull InputStream in,
+                          @NonNull OutputStream out,
+                          @NonNull Rect crop,
+                          int degrees) throws IOException {
+        int[] actual = transcode(in, out, crop.left, crop.top, crop.right, crop.bottom, degrees);
+        return new Rect(actual[0], actual[1], actual[2], actual[3]);
+    }
+
+    /**
+     * 无损裁剪、旋转，不依赖Android类型 - 子线程
+     *
+     * @return 实际裁剪的区域：left、top、right、bottom
+     * @see #transcode(InputStream, OutputStream, Rect, int)
+     */
+    @NonNull
+    static int[] transcode(@NonNull InputStream in,
+                           @NonNull OutputStream out,
+                           int left,
+                           int top,
+                           int right,
+                           int bottom,
+                           int degrees) throws IOException {
+        Decoder decoder = new Decoder(in);
+        degrees = (degrees % 360 + 360) % 360;
+        int[] actual = decoder.decode(new int[]{left, top, right, bottom}, degrees);
+        new Encoder(decoder, degrees).encode(out);
+        return actual;
+    }
+
+    /**
+     * 颜色分量
+     */
+    private static final class Component {
+        int id;
+        int h;
+        int v;
+        int tq;
+        int dcTable;
+        int acTable;
+        int pred;
+
+        /**
+         * 裁剪区域内的块，起点与数量
+         */
+        int blockX;
+        int blockY;
+        int blockWidth;
+        int blockHeight;
+
+        /**
+         * 裁剪区域内的DCT系数，自然顺序，每块64个
+         */
+        short[] coefficients;
+    }
+
+    /**
+     * 哈夫曼解码表
+     */
+    private static final class HuffmanTable {
+        final int[] lookup = new int[1 << LOOKAHEAD];
+        final int[] maxCode = new int[18];
+        final int[] valueOffset = new int[17];
+        final int[] values;
+
+        HuffmanTable(int[] counts, int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = k - code;
+                for (int i = 0; i < counts[length]; i++) {
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        int from = code << shift;
+                        int to = from + (1 << shift);
+                        for (int j = from; j < to; j++) {
+                            lookup[j] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = counts[length] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 解析原图，只保留裁剪区域内的DCT系数
+     */
+    private static final class Decoder {
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int bufferPos = 0;
+        private int bufferLength = 0;
+
+        private int bitBuffer = 0;
+        private int bitCount = 0;
+        private int marker = -1;
+
+        final int[][] quantTables = new int[4][];
+        final int[] quantPrecision = new int[4];
+        private final HuffmanTable[] dcTables = new HuffmanTable[4];
+        private final HuffmanTable[] acTables = new HuffmanTable[4];
+
+        /**
+         * 原样保留的APP与COM段，EXIF段的尺寸、缩略图、方向都会过期，由调用方重新写入
+         */
+        final List<byte[]> segments = new ArrayList<>();
+
+        int frameMarker;
+        int width;
+        int height;
+        Component[] components;
+        int maxH;
+        int maxV;
+        private int restartInterval = 0;
+
+        /**
+         * 裁剪区域，像素坐标
+         */
+        int cropWidth;
+        int cropHeight;
+
+        Decoder(InputStream in) {
+            this.in = in;
+        }
+
+        int[] decode(int[] crop, int degrees) throws IOException {
+            if (readByte() != 0xFF || readByte() != SOI) throw new IOException("not a jpeg");
+            while (true) {
+                int code = nextMarker();
+                if (code == SOF0 || code == SOF1) {
+                    readFrame(code);
+                } else if (code >= 0xC2 && code <= 0xCF && code != DHT && code != JPG && code != DAC) {
+                    throw new IOException("unsupported jpeg process: 0x" + Integer.toHexString(code));
+                } else if (code == DHT) {
+                    readHuffmanTables();
+                } else if (code == DQT) {
+                    readQuantTables();
+                } else if (code == DRI) {
+                    readLength();
+                    restartInterval = readUnsignedShort();
+                } else if (code >= APP0 && code <= APP15 || code == COM) {
+                    byte[] data = readSegment();
+                    if (code != APP1) segments.add(wrapSegment(code, data));
+                } else if (code == SOS) {
+                    if (components == null) throw new IOException("missing frame header");
+                    int[] rect = snap(crop, degrees);
+                    readScanHeader();
+                    readScan();
+                    return rect;
+                } else if (code == EOI) {
+                    throw new IOException("no scan data");
+                } else {
+                    readSegment();
+                }
+            }
+        }
+
+        private void readFrame(int code) throws IOException {
+            readLength();
+            if (readByte() != 8) throw new IOException("only 8-bit precision supported");
+            frameMarker = code;
+            height = readUnsignedShort();
+            width = readUnsignedShort();
+            int count = readByte();
+            if (width <= 0 || height <= 0 || count <= 0 || count > 4) {
+                throw new IOException("bad frame header");
+            }
+            components = new Component[count];
+            for (int i = 0; i < count; i++) {
+                Component c = new Component();
+                c.id = readByte();
+                int sampling = readByte();
+                c.h = sampling >> 4;
+                c.v = sampling & 15;
+                c.tq = readByte() & 3;
+                if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) throw new IOException("bad sampling factor");
+                components[i] = c;
+            }
+            // 单分量扫描，MCU固定为一个块
+            if (count == 1) {
+                components[0].h = 1;
+                components[0].v = 1;
+            }
+            for (Component c : components) {
+                maxH = Math.max(maxH, c.h);
+                maxV = Math.max(maxV, c.v);
+            }
+        }
+
+        private void readHuffmanTables() throws IOException {
+            int length = readLength();
+            while (length > 0) {
+                int info = readByte();
+                int[] counts = new int[17];
+                int total = 0;
+                for (int i = 1; i <= 16; i++) {
+                    counts[i] = readByte();
+                    total += counts[i];
+                }
+                if (total > 256) throw new IOException("bad huffman table");
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = readByte();
+                }
+                HuffmanTable table = new HuffmanTable(counts, values);
+                if ((info >> 4) == 0) dcTables[info & 3] = table;
+                else acTables[info & 3] = table;
+                length -= 17 + total;
+            }
+        }
+
+        private void readQuantTables() throws IOException {
+            int length = readLength();
+            while (length > 0) {
+                int info = readByte();
+                int precision = info >> 4;
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    table[ZIGZAG[k]] = precision == 0 ? readByte() : readUnsignedShort();
+                }
+                quantTables[info & 3] = table;
+                quantPrecision[info & 3] = precision;
+                length -= 65 + (precision == 0 ? 0 : 64);
+            }
+        }
+
+        /**
+         * 裁剪区域对齐到MCU
+         */
+        private int[] snap(int[] crop, int degrees) throws IOException {
+            int mcuWidth = 8 * maxH;
+            int mcuHeight = 8 * maxV;
+            int left = Math.max(0, Math.min(crop[0], width));
+            int top = Math.max(0, Math.min(crop[1], height));
+            int right = Math.max(left, Math.min(crop[2], width));
+            int bottom = Math.max(top, Math.min(crop[3], height));
+
+            // 起始边向外对齐
+            left = left / mcuWidth * mcuWidth;
+            top = top / mcuHeight * mcuHeight;
+            // 旋转后成为输出起始边的结束边，不允许有残缺的MCU，向内对齐
+            boolean alignRight = degrees == 180 || degrees == 270;
+            boolean alignBottom = degrees == 90 || degrees == 180;
+            if (alignRight) right = alignEnd(left, right, mcuWidth, width);
+            if (alignBottom) bottom = alignEnd(top, bottom, mcuHeight, height);
+            if (right <= left || bottom <= top) {
+                throw new IOException("crop region too small: " + crop[0] + "," + crop[1] + "," + crop[2] + "," + crop[3]);
+            }
+
+            cropWidth = right - left;
+            cropHeight = bottom - top;
+            int mcuX = left / mcuWidth;
+            int mcuY = top / mcuHeight;
+            int mcuColumns = (cropWidth + mcuWidth - 1) / mcuWidth;
+            int mcuRows = (cropHeight + mcuHeight - 1) / mcuHeight;
+            for (Component c : components) {
+                c.blockX = mcuX * c.h;
+                c.blockY = mcuY * c.v;
+                c.blockWidth = mcuColumns * c.h;
+                c.blockHeight = mcuRows * c.v;
+                c.coefficients = new short[c.blockWidth * c.blockHeight * 64];
+            }
+            return new int[]{left, top, right, bottom};
+        }
+
+        private static int alignEnd(int start, int end, int mcu, int limit) {
+            int aligned = end / mcu * mcu;
+            if (aligned > start) return aligned;
+            // 区域小于一个MCU，向外扩展
+            aligned = (end + mcu - 1) / mcu * mcu;
+            return aligned <= limit ? aligned : start;
+        }
+
+        private void readScanHeader() throws IOException {
+            readLength();
+            int count = readByte();
+            if (count != components.length) throw new IOException("non-interleaved scans not supported");
+            for (int i = 0; i < count; i++) {
+                int id = readByte();
+                int tables = readByte();
+                Component c = findComponent(id);
+                c.dcTable = tables >> 4 & 3;
+                c.acTable = tables & 3;
+                if (dcTables[c.dcTable] == null || acTables[c.acTable] == null) {
+                    throw new IOException("missing huffman table");
+                }
+                if (quantTables[c.tq] == null) throw new IOException("missing quantization table");
+            }
+            int start = readByte();
+            int end = readByte();
+            int approximation = readByte();
+            if (start != 0 || end != 63 || approximation != 0) throw new IOException("bad scan header");
+        }
+
+        private Component findComponent(int id) throws IOException {
+            for (Component c : components) {
+                if (c.id == id) return c;
+            }
+            throw new IOException("unknown component: " + id);
+        }
+
+        private void readScan() throws IOException {
+            int mcuColumns = (width + 8 * maxH - 1) / (8 * maxH);
+            int mcuRows = (height + 8 * maxV - 1) / (8 * maxV);
+            Component first = components[0];
+            // 裁剪区域以下的数据不再需要
+            int lastRow = (first.blockY + first.blockHeight) / first.v;
+            int restartCount = 0;
+            for (int mcuY = 0; mcuY < Math.min(mcuRows, lastRow); mcuY++) {
+                for (int mcuX = 0; mcuX < mcuColumns; mcuX++) {
+                    if (restartInterval > 0) {
+                        if (restartCount == restartInterval) {
+                            restart();
+                            restartCount = 0;
+                        }
+                        restartCount++;
+                    }
+                    for (Component c : components) {
+                        for (int v = 0; v < c.v; v++) {
+                            for (int h = 0; h < c.h; h++) {
+                                int x = mcuX * c.h + h - c.blockX;
+                                int y = mcuY * c.v + v - c.blockY;
+                                boolean inside = x >= 0 && x < c.blockWidth && y >= 0 && y < c.blockHeight;
+                                decodeBlock(c, inside ? (y * c.blockWidth + x) * 64 : -1);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void restart() throws IOException {
+            bitCount = 0;
+            if (marker < 0) {
+                // 跳到下一个标记
+                int b = readByte();
+                while (true) {
+                    while (b != 0xFF) b = readByte();
+                    b = readByte();
+                    while (b == 0xFF) b = readByte();
+                    if (b != 0) {
+                        marker = b;
+                        break;
+                    }
+                }
+            }
+            if (marker < 0xD0 || marker > 0xD7) throw new IOException("missing restart marker");
+            marker = -1;
+            for (Component c : components) {
+                c.pred = 0;
+            }
+        }
+
+        private void decodeBlock(Component c, int offset) throws IOException {
+            short[] out = c.coefficients;
+            int t = decodeHuffman(dcTables[c.dcTable]);
+            int diff = t == 0 ? 0 : extend(receive(t), t);
+            c.pred += diff;
+            if (offset >= 0) out[offset] = (short) c.pred;
+
+            HuffmanTable ac = acTables[c.acTable];
+            for (int k = 1; k < 64; ) {
+                int rs = decodeHuffman(ac);
+                int r = rs >> 4;
+                int s = rs & 15;
+                if (s == 0) {
+                    if (r != 15) break;
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > 63) throw new IOException("bad ac coefficient");
+                int value = extend(receive(s), s);
+                if (offset >= 0) out[offset + ZIGZAG[k]] = (short) value;
+                k++;
+            }
+        }
+
+        private int decodeHuffman(HuffmanTable table) throws IOException {
+            fillBits(16);
+            int entry = table.lookup[(bitBuffer >>> (bitCount - LOOKAHEAD)) & ((1 << LOOKAHEAD) - 1)];
+            if (entry != 0) {
+                bitCount -= entry >> 8;
+                return entry & 0xFF;
+            }
+            for (int length = LOOKAHEAD + 1; length <= 16; length++) {
+                int code = (bitBuffer >>> (bitCount - length)) & ((1 << length) - 1);
+                if (code <= table.maxCode[length]) {
+                    bitCount -= length;
+                    return table.values[code + table.valueOffset[length]];
+                }
+            }
+            throw new IOException("bad huffman code");
+        }
+
+        private int receive(int length) throws IOException {
+            fillBits(length);
+            bitCount -= length;
+            return (bitBuffer >>> bitCount) & ((1 << length) - 1);
+        }
+
+        private static int extend(int value, int length) {
+            return value < (1 << (length - 1)) ? value - (1 << length) + 1 : value;
+        }
+
+        private void fillBits(int length) throws IOException {
+            while (bitCount < length) {
+                int b = 0;
+                if (marker < 0) {
+                    b = readByte();
+                    if (b == 0xFF) {
+                        int next = readByte();
+                        while (next == 0xFF) next = readByte();
+                        if (next == 0) {
+                            b = 0xFF;
+                        } else {
+                            // 遇到标记，之后补0
+                            marker = next;
+                            b = 0;
+                        }
+                    }
+                }
+                bitBuffer = (bitBuffer << 8) | b;
+                bitCount += 8;
+            }
+        }
+
+        private int nextMarker() throws IOException {
+            int b = readByte();
+            while (b != 0xFF) b = readByte();
+            while (b == 0xFF) b = readByte();
+            return b;
+        }
+
+        private int readLength() throws IOException {
+            int length = readUnsignedShort();
+            if (length < 2) throw new IOException("bad segment length");
+            return length - 2;
+        }
+
+        private byte[] readSegment() throws IOException {
+            byte[] data = new byte[readLength()];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) readByte();
+            }
+            return data;
+        }
+
+        private int readUnsignedShort() throws IOException {
+            return (readByte() << 8) | readByte();
+        }
+
+        private int readByte() throws IOException {
+            if (bufferPos == bufferLength) {
+                bufferLength = in.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    throw new EOFException("unexpected end of jpeg");
+                }
+            }
+            return buffer[bufferPos++] & 0xFF;
+        }
+
+        private static byte[] wrapSegment(int code, byte[] data) {
+            byte[] segment = new byte[data.length + 4];
+            segment[0] = (byte) 0xFF;
+            segment[1] = (byte) code;
+            segment[2] = (byte) ((data.length + 2) >> 8);
+            segment[3] = (byte) (data.length + 2);
+            System.arraycopy(data, 0, segment, 4, data.length);
+            return segment;
+        }
+    }
+
+    /**
+     * 旋转DCT系数并重新熵编码，哈夫曼表按实际数据生成
+     */
+    private static final class Encoder {
+        private final Decoder source;
+        private final int degrees;
+        private final boolean transpose;
+        private final int outWidth;
+        private final int outHeight;
+
+        private final int[][] dcFrequency = new int[2][257];
+        private final int[][] acFrequency = new int[2][257];
+        private final int[][] dcCodes = new int[2][256];
+        private final int[][] dcSizes = new int[2][256];
+        private final int[][] acCodes = new int[2][256];
+        private final int[][] acSizes = new int[2][256];
+        private final int[][] dcBits = new int[2][];
+        private final int[][] dcValues = new int[2][];
+        private final int[][] acBits = new int[2][];
+        private final int[][] acValues = new int[2][];
+
+        private final short[] block = new short[64];
+        private final int[] preds;
+
+        private OutputStream out;
+        private boolean counting;
+        private int bitBuffer = 0;
+        private int bitCount = 0;
+
+        Encoder(Decoder source, int degrees) {
+            this.source = source;
+            this.degrees = degrees;
+            this.transpose = CropRenderer.isSwapped(degrees);
+            this.outWidth = transpose ? source.cropHeight : source.cropWidth;
+            this.outHeight = transpose ? source.cropWidth : source.cropHeight;
+            this.preds = new int[source.components.length];
+        }
+
+        void encode(OutputStream os) throws IOException {
+            // 第一遍统计符号频率，生成最优哈夫曼表
+            counting = true;
+            encodeScan();
+            for (int t = 0; t < tableCount(); t++) {
+                dcBits[t] = new int[17];
+                dcValues[t] = buildTable(dcFrequency[t], dcBits[t], dcCodes[t], dcSizes[t]);
+                acBits[t] = new int[17];
+                acValues[t] = buildTable(acFrequency[t], acBits[t], acCodes[t], acSizes[t]);
+            }
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            writeHeaders(header);
+            out = new BufferedOutputStream(os, 8192);
+            header.writeTo(out);
+
+            // 第二遍写入熵编码数据
+            counting = false;
+            encodeScan();
+            flushBits();
+            out.write(0xFF);
+            out.write(EOI);
+            out.flush();
+        }
+
+        private void writeHeaders(ByteArrayOutputStream os) {
+            os.write(0xFF);
+            os.write(SOI);
+            for (byte[] segment : source.segments) {
+                os.write(segment, 0, segment.length);
+            }
+
+            // 量化表，转置时同步转置
+            for (int i = 0; i < 4; i++) {
+                int[] table = source.quantTables[i];
+                if (table == null || !isQuantTableUsed(i)) continue;
+                int precision = source.quantPrecision[i];
+                writeMarker(os, DQT, 1 + 64 * (precision == 0 ? 1 : 2));
+                os.write((precision << 4) | i);
+                for (int k = 0; k < 64; k++) {
+                    int index = ZIGZAG[k];
+                    int value = table[transpose ? (index % 8) * 8 + index / 8 : index];
+                    if (precision != 0) os.write(value >> 8);
+                    os.write(value);
+                }
+            }
+
+            // 帧头，转置时水平与垂直采样因子互换
+            Component[] components = source.components;
+            writeMarker(os, source.frameMarker, 6 + components.length * 3);
+            os.write(8);
+            writeShort(os, outHeight);
+            writeShort(os, outWidth);
+            os.write(components.length);
+            for (Component c : components) {
+                os.write(c.id);
+                os.write(transpose ? (c.v << 4) | c.h : (c.h << 4) | c.v);
+                os.write(c.tq);
+            }
+
+            // 哈夫曼表
+            for (int t = 0; t < tableCount(); t++) {
+                writeHuffmanTable(os, t, dcBits[t], dcValues[t]);
+                writeHuffmanTable(os, 0x10 | t, acBits[t], acValues[t]);
+            }
+
+            // 扫描头
+            writeMarker(os, SOS, 4 + components.length * 2);
+            os.write(components.length);
+            for (int i = 0; i < components.length; i++) {
+                os.write(components[i].id);
+                int table = tableOf(i);
+                os.write((table << 4) | table);
+            }
+            os.write(0);
+            os.write(63);
+            os.write(0);
+        }
+
+        private boolean isQuantTableUsed(int index) {
+            for (Component c : source.components) {
+                if (c.tq == index) return true;
+            }
+            return false;
+        }
+
+        private void encodeScan() throws IOException {
+            Component[] components = source.components;
+            int maxH = transpose ? source.maxV : source.maxH;
+            int maxV = transpose ? source.maxH : source.maxV;
+            int mcuColumns = (outWidth + 8 * maxH - 1) / (8 * maxH);
+            int mcuRows = (outHeight + 8 * maxV - 1) / (8 * maxV);
+            for (int i = 0; i < preds.length; i++) {
+                preds[i] = 0;
+            }
+            for (int mcuY = 0; mcuY < mcuRows; mcuY++) {
+                for (int mcuX = 0; mcuX < mcuColumns; mcuX++) {
+                    for (int i = 0; i < components.length; i++) {
+                        Component c = components[i];
+                        int h = transpose ? c.v : c.h;
+                        int v = transpose ? c.h : c.v;
+                        for (int y = 0; y < v; y++) {
+                            for (int x = 0; x < h; x++) {
+                                loadBlock(c, mcuX * h + x, mcuY * v + y);
+                                encodeBlock(i, tableOf(i));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 取出输出位置对应的原图块，并在DCT域完成旋转
+         */
+        private void loadBlock(Component c, int x, int y) {
+            int width = c.blockWidth;
+            int height = c.blockHeight;
+            int sourceX;
+            int sourceY;
+            switch (degrees) {
+                case 90:
+                    sourceX = y;
+                    sourceY = height - 1 - x;
+                    break;
+                case 180:
+                    sourceX = width - 1 - x;
+                    sourceY = height - 1 - y;
+                    break;
+                case 270:
+                    sourceX = width - 1 - y;
+                    sourceY = x;
+                    break;
+                default:
+                    sourceX = x;
+                    sourceY = y;
+                    break;
+            }
+            int offset = (sourceY * width + sourceX) * 64;
+            short[] coefficients = c.coefficients;
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    int value;
+                    switch (degrees) {
+                        case 90:
+                            // 转置 + 水平翻转
+                            value = coefficients[offset + u * 8 + v];
+                            if ((u & 1) == 1) value = -value;
+                            break;
+                        case 180:
+                            value = coefficients[offset + v * 8 + u];
+                            if (((u + v) & 1) == 1) value = -value;
+                            break;
+                        case 270:
+                            // 转置 + 垂直翻转
+                            value = coefficients[offset + u * 8 + v];
+                            if ((v & 1) == 1) value = -value;
+                            break;
+                        default:
+                            value = coefficients[offset + v * 8 + u];
+                            break;
+                    }
+                    block[v * 8 + u] = (short) value;
+                }
+            }
+        }
+
+        private void encodeBlock(int component, int table) throws IOException {
+            int diff = block[0] - preds[component];
+            preds[component] = block[0];
+            int size = bitLength(diff);
+            emitDc(table, size);
+            if (size > 0) emitBits(diff < 0 ? diff - 1 : diff, size);
+
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = block[ZIGZAG[k]];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    emitAc(table, 0xF0);
+                    run -= 16;
+                }
+                size = bitLength(value);
+                emitAc(table, (run << 4) | size);
+                emitBits(value < 0 ? value - 1 : value, size);
+                run = 0;
+            }
+            if (run > 0) emitAc(table, 0);
+        }
+
+        private void emitDc(int table, int symbol) throws IOException {
+            if (counting) dcFrequency[table][symbol]++;
+            else emitBits(dcCodes[table][symbol], dcSizes[table][symbol]);
+        }
+
+        private void emitAc(int table, int symbol) throws IOException {
+            if (counting) acFrequency[table][symbol]++;
+            else emitBits(acCodes[table][symbol], acSizes[table][symbol]);
+        }
+
+        private void emitBits(int value, int size) throws IOException {
+            if (counting) return;
+            bitBuffer = (bitBuffer << size) | (value & ((1 << size) - 1));
+            bitCount += size;
+            while (bitCount >= 8) {
+                int b = (bitBuffer >> (bitCount - 8)) & 0xFF;
+                out.write(b);
+                if (b == 0xFF) out.write(0);
+                bitCount -= 8;
+            }
+        }
+
+        private void flushBits() throws IOException {
+            // 不足一个字节用1补齐
+            if (bitCount > 0) emitBits(0x7F, 8 - bitCount);
+        }
+
+        /**
+         * @return 哈夫曼表数量 - 亮度一套，色度共用一套
+         */
+        private int tableCount() {
+            return Math.min(2, source.components.length);
+        }
+
+        private static int tableOf(int component) {
+            return component == 0 ? 0 : 1;
+        }
+
+        private static int bitLength(int value) {
+            return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+        }
+
+        private static void writeMarker(ByteArrayOutputStream os, int code, int length) {
+            os.write(0xFF);
+            os.write(code);
+            writeShort(os, length + 2);
+        }
+
+        private static void writeShort(ByteArrayOutputStream os, int value) {
+            os.write(value >> 8);
+            os.write(value);
+        }
+
+        private static void writeHuffmanTable(ByteArrayOutputStream os, int info, int[] bits, int[] values) {
+            writeMarker(os, DHT, 17 + values.length);
+            os.write(info);
+            for (int i = 1; i <= 16; i++) {
+                os.write(bits[i]);
+            }
+            for (int value : values) {
+                os.write(value);
+            }
+        }
+
+        /**
+         * 按符号频率生成码长不超过16位的哈夫曼表，参考JPEG标准附录K.2
+         *
+         * @param frequency 符号频率，最后一位留给保留符号
+         * @param bits      输出，每种码长的数量
+         * @param codes     输出，符号 -> 编码
+         * @param sizes     输出，符号 -> 码长
+         * @return 按码长排列的符号
+         */
+        private static int[] buildTable(int[] frequency, int[] bits, int[] codes, int[] sizes) {
+            long[] freq = new long[257];
+            for (int i = 0; i < 256; i++) {
+                freq[i] = frequency[i];
+            }
+            // 保留符号，保证不会出现全1的编码
+            freq[256] = 1;
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            for (int i = 0; i < 257; i++) {
+                others[i] = -1;
+            }
+
+            while (true) {
+                int c1 = -1;
+                long min = Long.MAX_VALUE;
+                for (int i = 0; i < 257; i++) {
+                    if (freq[i] != 0 && freq[i] <= min) {
+                        min = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                min = Long.MAX_VALUE;
+                for (int i = 0; i < 257; i++) {
+                    if (freq[i] != 0 && freq[i] <= min && i != c1) {
+                        min = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) break;
+
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] count = new int[258];
+            int maxLength = 0;
+            for (int i = 0; i < 257; i++) {
+                if (codeSize[i] != 0) {
+                    count[codeSize[i]]++;
+                    maxLength = Math.max(maxLength, codeSize[i]);
+                }
+            }
+            // 码长超过16位的，调整到16位以内
+            for (int i = maxLength; i > 16; i--) {
+                while (count[i] > 0) {
+                    int j = i - 2;
+                    while (count[j] == 0) j--;
+                    count[i] -= 2;
+                    count[i - 1]++;
+                    count[j + 1] += 2;
+                    count[j]--;
+                }
+            }
+            // 去掉保留符号
+            int longest = 16;
+            while (count[longest] == 0) longest--;
+            count[longest]--;
+
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                bits[i] = count[i];
+                total += count[i];
+            }
+            int[] values = new int[total];
+            int p = 0;
+            for (int length = 1; length <= 256 && p < total; length++) {
+                for (int symbol = 0; symbol < 256 && p < total; symbol++) {
+                    if (codeSize[symbol] == length) values[p++] = symbol;
+                }
+            }
+
+            // 按码长分配编码
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length]; i++) {
+                    codes[values[k]] = code;
+                    sizes[values[k]] = length;
+                    code++;
+                    k++;
+                }
+                code <<= 1;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.liaohailong.library;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Debug;
+import android.util.DisplayMetrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/16 10:05
+ * Describe: 默认解码策略 - 以屏幕和输出尺寸为目标，再按当前可用内存限制预览图大小
+ */
+public class MemoryBudgetDecodeStrategy implements DecodeStrategy {
+
+    /**
+     * 预览图最多占应用内存等级的比例
+     */
+    private static final int MEMORY_CLASS_DIVISOR = 4;
+
+    /**
+     * 低内存设备上预览图最多占应用内存等级的比例
+     */
+    private static final int LOW_RAM_MEMORY_CLASS_DIVISOR = 8;
+
+    /**
+     * 预算下限，保证预览图不至于太模糊
+     */
+    private static final long MIN_BUDGET = 4 * 1024 * 1024;
+
+    @Override
+    public void calculate(@NonNull Context context,
+                          @NonNull BitmapFactory.Options bounds,
+                          @NonNull CropOptions options,
+                          @NonNull Spec out) {
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+
+        // 目标尺寸 - 图片以短边铺满裁剪框显示，短边至少为屏幕短边，输出尺寸更大时以输出尺寸为准
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int reqShort = Math.max(
+                Math.min(metrics.widthPixels, metrics.heightPixels),
+                Math.min(options.getOutputWidth(), options.getOutputHeight()));
+        int shortEdge = Math.min(width, height);
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRam = am != null && am.isLowRamDevice();
+        long budget = calculateBudget(am, lowRam);
+
+        // 低内存设备，不透明的图片用RGB_565，内存减半
+        Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        if (lowRam && "image/jpeg".equals(bounds.outMimeType)) {
+            config = Bitmap.Config.RGB_565;
+        }
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+
+        // 超出预算，按预算能容纳的像素数缩小目标短边
+        double maxPixels = budget * 1.0 / bytesPerPixel;
+        int budgetShort = (int) Math.sqrt(maxPixels * shortEdge / Math.max(width, height));
+        int targetShort = Math.max(1, Math.min(shortEdge, Math.min(reqShort, budgetShort)));
+        float scale = targetShort * 1f / shortEdge;
+
+        // 先用2的幂次采样到不小于目标尺寸，再精确缩放到目标尺寸
+        int inSampleSize = 1;
+        while (shortEdge / (inSampleSize * 2) >= targetShort) {
+            inSampleSize *= 2;
+        }
+
+        out.inSampleSize = inSampleSize;
+        out.targetWidth = Math.max(1, Math.round(width * scale));
+        out.targetHeight = Math.max(1, Math.round(height * scale));
+        out.config = config;
+    }
+
+    /**
+     * 计算预览图的内存预算
+     *
+     * @param am     ActivityManager
+     * @param lowRam 是否低内存设备
+     * @return 字节数
+     */
+    protected long calculateBudget(ActivityManager am, boolean lowRam) {
+        long memoryClass = (am != null ? am.getMemoryClass() : 64) * 1024L * 1024L;
+        long budget = memoryClass / (lowRam ? LOW_RAM_MEMORY_CLASS_DIVISOR : MEMORY_CLASS_DIVISOR);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // 8.0开始位图像素在native堆中，扣除已经占用的部分
+            long nativeAllocated = Debug.getNativeHeapAllocatedSize();
+            budget = Math.min(budget, Math.max(0, memoryClass - nativeAllocated) / 2);
+            if (am != null) {
+                ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+                am.getMemoryInfo(info);
+                budget = Math.min(budget, Math.max(0, info.availMem - info.threshold) / 4);
+            }
+        } else {
+            // 8.0以前位图像素在Java堆中
+            Runtime runtime = Runtime.getRuntime();
+            long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            budget = Math.min(budget, free / 2);
+        }
+        return Math.max(MIN_BUDGET, budget);
+    }
+}
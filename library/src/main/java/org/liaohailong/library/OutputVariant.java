@@ -0,0 +1,114 @@
+package org.liaohailong.library;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 14:12
+ * Describe: 附加输出 - 同一次裁剪额外输出的一个尺寸、格式
+ * <p>
+ * 由主输出的裁剪结果缩小得到，宽高比应与裁剪比例一致，尺寸不要大于主输出
+ */
+public final class OutputVariant implements Parcelable {
+
+    private final Uri output;
+    private final int width;
+    private final int height;
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+
+    /**
+     * 压缩质量与主输出一致
+     *
+     * @param output 输出位置，文件或者content
+     * @param width  输出宽度，旋转后的方向
+     * @param height 输出高度，旋转后的方向
+     * @param format 输出格式
+     */
+    public OutputVariant(@NonNull Uri output, int width, int height, @NonNull Bitmap.CompressFormat format) {
+        this(output, width, height, format, -1);
+    }
+
+    /**
+     * @param output  输出位置，文件或者content
+     * @param width   输出宽度，旋转后的方向
+     * @param height  输出高度，旋转后的方向
+     * @param format  输出格式
+     * @param quality 压缩质量 [0,100]，小于0表示与主输出一致
+     */
+    public OutputVariant(@NonNull Uri output,
+                         int width,
+                         int height,
+                         @NonNull Bitmap.CompressFormat format,
+                         int quality) {
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.quality = Math.min(100, quality);
+    }
+
+    @NonNull
+    public Uri getOutput() {
+        return output;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @NonNull
+    public Bitmap.CompressFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return 压缩质量，小于0表示与主输出一致
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    protected OutputVariant(Parcel in) {
+        output = in.readParcelable(Uri.class.getClassLoader());
+        width = in.readInt();
+        height = in.readInt();
+        format = Bitmap.CompressFormat.valueOf(in.readString());
+        quality = in.readInt();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeParcelable(output, flags);
+        dest.writeInt(width);
+        dest.writeInt(height);
+        dest.writeString(format.name());
+        dest.writeInt(quality);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<OutputVariant> CREATOR = new Creator<OutputVariant>() {
+        @Override
+        public OutputVariant createFromParcel(Parcel in) {
+            return new OutputVariant(in);
+        }
+
+        @Override
+        public OutputVariant[] newArray(int size) {
+            return new OutputVariant[size];
+        }
+    };
+}
@@ -0,0 +1,207 @@
+package org.liaohailong.library;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/17 10:05
+ * Describe: 加载-裁剪-保存流程中一个阶段的耗时记录
+ * <p>
+ * 时间戳取自{@link android.os.SystemClock#elapsedRealtimeNanos()}，同一进程内的事件可以直接相减
+ */
+public final class PipelineEvent implements Parcelable {
+
+    /**
+     * 流程阶段，每个阶段同时以 {@link #getTraceName()} 为名输出Trace区间
+     */
+    public enum Stage {
+        /**
+         * 打开原图文件描述符
+         */
+        OPEN("CropPipeline#open"),
+        /**
+         * 解码原图尺寸，字节数为原图文件大小
+         */
+        BOUNDS("CropPipeline#bounds"),
+        /**
+         * 读取原图EXIF信息
+         */
+        EXIF("CropPipeline#exif"),
+        /**
+         * 快速预览图解码
+         */
+        QUICK_PREVIEW("CropPipeline#quickPreview"),
+        /**
+         * 完整预览图解码
+         */
+        PREVIEW("CropPipeline#preview"),
+        /**
+         * 从磁盘缓存读取预览图，字节数为预览图占用的内存，未命中时为-1
+         */
+        DISK_CACHE("CropPipeline#diskCache"),
+        /**
+         * 预览图裁剪、缩放，从主线程发起到回调主线程
+         */
+        RENDER("CropPipeline#render"),
+        /**
+         * 原图区域解码
+         */
+        REGION_DECODE("CropPipeline#regionDecode"),
+        /**
+         * JPEG无损裁剪，字节数为输出文件大小
+         */
+        LOSSLESS("CropPipeline#lossless"),
+        /**
+         * 压缩并写入输出文件，字节数为输出文件大小
+         */
+        ENCODE("CropPipeline#encode"),
+        /**
+         * 附加输出的缩放、压缩并写入，每个附加输出一条，字节数为输出文件大小
+         */
+        VARIANT("CropPipeline#variant"),
+        /**
+         * 点击确认到返回结果的总耗时
+         */
+        CONFIRM("CropPipeline#confirm");
+
+        private final String traceName;
+
+        Stage(String traceName) {
+            this.traceName = traceName;
+        }
+
+        @NonNull
+        public String getTraceName() {
+            return traceName;
+        }
+    }
+
+    private final Stage stage;
+    private final long startNanos;
+    private final long endNanos;
+    private final long bytes;
+    private final int width;
+    private final int height;
+    private final String error;
+
+    PipelineEvent(@NonNull Stage stage,
+                  long startNanos,
+                  long endNanos,
+                  long bytes,
+                  int width,
+                  int height,
+                  @Nullable String error) {
+        this.stage = stage;
+        this.startNanos = startNanos;
+        this.endNanos = endNanos;
+        this.bytes = bytes;
+        this.width = width;
+        this.height = height;
+        this.error = error;
+    }
+
+    @NonNull
+    public Stage getStage() {
+        return stage;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getEndNanos() {
+        return endNanos;
+    }
+
+    public long getDurationNanos() {
+        return endNanos - startNanos;
+    }
+
+    /**
+     * @return 本阶段读写的字节数，或者输出位图占用的内存，未知时为-1
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 本阶段产出的位图或图片宽度，未知时为0
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return 本阶段产出的位图或图片高度，未知时为0
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return 失败原因，成功时为null
+     */
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PipelineEvent{" +
+                "stage=" + stage +
+                ", durationNanos=" + getDurationNanos() +
+                ", bytes=" + bytes +
+                ", width=" + width +
+                ", height=" + height +
+                ", error=" + error +
+                '}';
+    }
+
+    protected PipelineEvent(Parcel in) {
+        stage = Stage.values()[in.readInt()];
+        startNanos = in.readLong();
+        endNanos = in.readLong();
+        bytes = in.readLong();
+        width = in.readInt();
+        height = in.readInt();
+        error = in.readString();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(stage.ordinal());
+        dest.writeLong(startNanos);
+        dest.writeLong(endNanos);
+        dest.writeLong(bytes);
+        dest.writeInt(width);
+        dest.writeInt(height);
+        dest.writeString(error);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PipelineEvent> CREATOR = new Creator<PipelineEvent>() {
+        @Override
+        public PipelineEvent createFromParcel(Parcel in) {
+            return new PipelineEvent(in);
+        }
+
+        @Override
+        public PipelineEvent[] newArray(int size) {
+            return new PipelineEvent[size];
+        }
+    };
+}
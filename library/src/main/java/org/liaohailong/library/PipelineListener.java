@@ -0,0 +1,21 @@
+package org.liaohailong.library;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/17 10:20
+ * Describe: 加载-裁剪-保存流程的阶段耗时监听
+ * <p>
+ * 通过{@link CropOptions#setPipelineListener(Class)}设置时，监听运行在裁剪界面的独立进程，
+ * 实现类必须有public的无参构造函数；需要回到调用方进程时，从结果中读取{@link CropImageActivity#getPipelineEvents}
+ */
+public interface PipelineListener {
+
+    /**
+     * 一个阶段结束 - 在执行该阶段的线程回调，不要做耗时操作
+     *
+     * @param event 阶段耗时记录
+     */
+    void onPipelineEvent(@NonNull PipelineEvent event);
+}
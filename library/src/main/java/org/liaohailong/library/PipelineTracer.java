@@ -0,0 +1,136 @@
+package org.liaohailong.library;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/17 10:32
+ * Describe: 记录流程各阶段的耗时，同时输出Trace区间，阶段结束时通知监听
+ */
+final class PipelineTracer {
+
+    private static final AtomicInteger COOKIE = new AtomicInteger();
+
+    private final PipelineListener[] listeners;
+    private final ArrayList<PipelineEvent> events = new ArrayList<>();
+
+    /**
+     * @param listeners 阶段耗时监听，忽略null
+     */
+    PipelineTracer(@Nullable PipelineListener... listeners) {
+        int count = 0;
+        for (PipelineListener listener : listeners) {
+            if (listener != null) count++;
+        }
+        this.listeners = new PipelineListener[count];
+        int index = 0;
+        for (PipelineListener listener : listeners) {
+            if (listener != null) this.listeners[index++] = listener;
+        }
+    }
+
+    /**
+     * 开始一个阶段 - 必须在同一线程结束
+     *
+     * @param stage 阶段
+     * @return 阶段记录
+     */
+    @NonNull
+    Span begin(@NonNull PipelineEvent.Stage stage) {
+        Trace.beginSection(stage.getTraceName());
+        return new Span(stage, -1);
+    }
+
+    /**
+     * 开始一个跨线程的阶段 - 10.0及以上输出异步Trace区间
+     *
+     * @param stage 阶段
+     * @return 阶段记录
+     */
+    @NonNull
+    Span beginAsync(@NonNull PipelineEvent.Stage stage) {
+        int cookie = COOKIE.incrementAndGet() & Integer.MAX_VALUE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(stage.getTraceName(), cookie);
+        }
+        return new Span(stage, cookie);
+    }
+
+    /**
+     * @return 目前为止结束的所有阶段，按结束顺序
+     */
+    @NonNull
+    ArrayList<PipelineEvent> getEvents() {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    private void dispatch(@NonNull PipelineEvent event) {
+        synchronized (events) {
+            events.add(event);
+        }
+        for (PipelineListener listener : listeners) {
+            listener.onPipelineEvent(event);
+        }
+    }
+
+    /**
+     * 一个阶段，结束或失败只记录第一次
+     */
+    final class Span {
+        private final PipelineEvent.Stage stage;
+        private final long startNanos;
+        /**
+         * 异步Trace区间的标识，小于0表示同步区间
+         */
+        private final int cookie;
+        private boolean finished = false;
+
+        private Span(@NonNull PipelineEvent.Stage stage, int cookie) {
+            this.stage = stage;
+            this.cookie = cookie;
+            this.startNanos = SystemClock.elapsedRealtimeNanos();
+        }
+
+        /**
+         * 阶段成功结束
+         *
+         * @param bytes  读写的字节数，或者位图占用的内存，未知时传-1
+         * @param width  产出的宽度，未知时传0
+         * @param height 产出的高度，未知时传0
+         */
+        void end(long bytes, int width, int height) {
+            finish(bytes, width, height, null);
+        }
+
+        /**
+         * 阶段失败
+         *
+         * @param reason 失败原因，异常或者描述文字
+         */
+        void fail(@NonNull Object reason) {
+            finish(-1, 0, 0, reason.toString());
+        }
+
+        private void finish(long bytes, int width, int height, @Nullable String error) {
+            if (finished) return;
+            finished = true;
+            long endNanos = SystemClock.elapsedRealtimeNanos();
+            if (cookie < 0) {
+                Trace.endSection();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(stage.getTraceName(), cookie);
+            }
+            dispatch(new PipelineEvent(stage, startNanos, endNanos, bytes, width, height, error));
+        }
+    }
+}
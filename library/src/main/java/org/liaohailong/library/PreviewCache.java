@@ -0,0 +1,284 @@
+package org.liaohailong.library;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 18:05
+ * Describe: 预览图内存缓存 - 进程内唯一，按原图Uri、文件大小、修改时间和解码策略的输入区分
+ * <p>
+ * 退出裁剪界面后再次打开同一张图片，不需要重新读取尺寸、EXIF和解码预览图
+ * <p>
+ * 预览图在界面使用期间从缓存中取出，界面销毁时放回；被淘汰的位图归还{@link BitmapPool}
+ */
+public final class PreviewCache {
+
+    /**
+     * 原图信息最多缓存的条数
+     */
+    private static final int MAX_SOURCE_COUNT = 32;
+
+    private static volatile PreviewCache instance;
+
+    /**
+     * @param context 上下文，首次调用时注册内存紧张回调
+     * @return 进程内唯一的预览图缓存
+     */
+    @NonNull
+    public static PreviewCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (PreviewCache.class) {
+                if (instance == null) {
+                    final PreviewCache cache = new PreviewCache((int) (Runtime.getRuntime().maxMemory() / 8));
+                    // 界面关闭后缓存仍然存在，不能只依赖界面转发内存紧张回调
+                    context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                        @Override
+                        public void onTrimMemory(int level) {
+                            cache.trimMemory(level);
+                        }
+
+                        @Override
+                        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                        }
+
+                        @Override
+                        public void onLowMemory() {
+                            cache.clear();
+                        }
+                    });
+                    instance = cache;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 原图 -> 尺寸、EXIF信息
+     */
+    private final LruCache<String, Source> sources = new LruCache<>(MAX_SOURCE_COUNT);
+
+    /**
+     * 原图 + 解码参数 -> 预览图
+     */
+    private final LruCache<String, Bitmap> previews;
+
+    private PreviewCache(int maxSize) {
+        previews = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // 被淘汰或者被替换，内存交给复用池
+                if (oldValue != newValue) BitmapPool.getInstance().put(oldValue);
+            }
+        };
+    }
+
+    /**
+     * @param maxSize 预览图缓存最大字节数
+     */
+    public void setMaxSize(int maxSize) {
+        previews.resize(maxSize);
+    }
+
+    /**
+     * 系统内存紧张时调用，参考{@link ComponentCallbacks2#onTrimMemory(int)}
+     *
+     * @param level 内存紧张等级
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            previews.trimToSize(previews.maxSize() / 2);
+        }
+    }
+
+    /**
+     * 清空缓存，预览图归还复用池
+     */
+    public void clear() {
+        previews.evictAll();
+        sources.evictAll();
+    }
+
+    /**
+     * 原图的缓存键 - 子线程
+     *
+     * @param source 原图
+     * @param pfd    已打开的原图文件描述符
+     * @return 缓存键，无法确定文件版本（如管道）时返回null，不缓存
+     */
+    @Nullable
+    static String keyOf(@NonNull Uri source, @NonNull ParcelFileDescriptor pfd) {
+        long size = pfd.getStatSize();
+        if (size < 0) return null;
+        try {
+            long modified = Os.fstat(pfd.getFileDescriptor()).st_mtime;
+            return source + "#" + size + "#" + modified;
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 预览图的缓存键 - 只取稳定的输入：解码策略、屏幕尺寸和输出尺寸
+     * <p>
+     * 解码策略的计算结果与当时的可用内存有关，不能作为缓存键，否则内存紧张程度不同就无法命中
+     *
+     * @param context   上下文
+     * @param sourceKey {@link #keyOf(Uri, ParcelFileDescriptor)}
+     * @param options   裁剪配置信息
+     * @return 预览图的缓存键
+     */
+    @NonNull
+    static String keyOf(@NonNull Context context, @NonNull String sourceKey, @NonNull CropOptions options) {
+        return sourceKey + optionsKeyOf(context, options);
+    }
+
+    /**
+     * 预览图缓存键中与原图无关的部分，同一张图片这部分相同才会得到同一个预览图
+     *
+     * @param context 上下文
+     * @param options 裁剪配置信息
+     * @return 解码策略、屏幕尺寸和输出尺寸
+     */
+    @NonNull
+    static String optionsKeyOf(@NonNull Context context, @NonNull CropOptions options) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int shortEdge = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int longEdge = Math.max(metrics.widthPixels, metrics.heightPixels);
+        return "#" + options.getDecodeStrategyName()
+                + "#" + shortEdge + "x" + longEdge
+                + "#" + options.getOutputWidth() + "x" + options.getOutputHeight();
+    }
+
+    @Nullable
+    Source getSource(@NonNull String sourceKey) {
+        return sources.get(sourceKey);
+    }
+
+    void putSource(@NonNull String sourceKey, @NonNull Source source) {
+        sources.put(sourceKey, source);
+    }
+
+    /**
+     * 预览图的解码参数 - 同一个预览图缓存键只计算一次，与原图信息一起缓存，预加载和界面共用
+     * <p>
+     * 解码策略按当时的可用内存计算，预加载的预览图还在缓存中占着内存，界面重新计算会得到更小的尺寸，
+     * 再解码一份反而占用双倍内存
+     *
+     * @param context    上下文
+     * @param sourceKey  {@link #keyOf(Uri, ParcelFileDescriptor)}，原图信息已经放入缓存
+     * @param previewKey {@link #keyOf(Context, String, CropOptions)}
+     * @param bounds     原图信息 - outWidth、outHeight、outMimeType
+     * @param options    裁剪配置信息
+     * @return 解码参数，只读
+     */
+    @NonNull
+    DecodeStrategy.Spec specOf(@NonNull Context context,
+                               @NonNull String sourceKey,
+                               @NonNull String previewKey,
+                               @NonNull BitmapFactory.Options bounds,
+                               @NonNull CropOptions options) {
+        Source source = sources.get(sourceKey);
+        if (source != null && previewKey.equals(source.specKey) && source.spec != null) return source.spec;
+        DecodeStrategy.Spec spec = new DecodeStrategy.Spec();
+        options.getDecodeStrategy().calculate(context, bounds, options, spec);
+        if (source != null) sources.put(sourceKey, source.withSpec(previewKey, spec));
+        return spec;
+    }
+
+    /**
+     * @param key 预览图的缓存键
+     * @return true表示已有缓存
+     */
+    boolean contains(@NonNull String key) {
+        return previews.get(key) != null;
+    }
+
+    /**
+     * 取出预览图，之后由调用方持有，用完通过{@link #put(String, Bitmap)}放回
+     * <p>
+     * 已经在内存中的预览图直接使用，不再按当前的内存预算重新判断，使用它不会增加内存
+     *
+     * @param key 预览图的缓存键
+     * @return 预览图，没有缓存返回null
+     */
+    @Nullable
+    Bitmap take(@NonNull String key) {
+        Bitmap bitmap = previews.remove(key);
+        if (bitmap != null && bitmap.isRecycled()) return null;
+        return bitmap;
+    }
+
+    /**
+     * 放入预览图，调用方之后不能再使用它
+     *
+     * @param key    预览图的缓存键
+     * @param bitmap 预览图
+     */
+    void put(@NonNull String key, @NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled()) return;
+        previews.put(key, bitmap);
+    }
+
+    /**
+     * 原图信息 - 尺寸、格式、EXIF和预览图的解码参数
+     */
+    static final class Source {
+        final int width;
+        final int height;
+        final String mimeType;
+        /**
+         * 原图的EXIF信息，只读，null表示没有
+         */
+        final ExifInterface exif;
+        /**
+         * 解码参数对应的预览图缓存键，null表示还没有计算
+         */
+        final String specKey;
+        /**
+         * 预览图的解码参数，只读
+         */
+        final DecodeStrategy.Spec spec;
+
+        Source(int width, int height, @Nullable String mimeType, @Nullable ExifInterface exif) {
+            this(width, height, mimeType, exif, null, null);
+        }
+
+        private Source(int width, int height, @Nullable String mimeType, @Nullable ExifInterface exif,
+                       @Nullable String specKey, @Nullable DecodeStrategy.Spec spec) {
+            this.width = width;
+            this.height = height;
+            this.mimeType = mimeType;
+            this.exif = exif;
+            this.specKey = specKey;
+            this.spec = spec;
+        }
+
+        @NonNull
+        Source withSpec(@NonNull String specKey, @NonNull DecodeStrategy.Spec spec) {
+            return new Source(width, height, mimeType, exif, specKey, spec);
+        }
+    }
+}
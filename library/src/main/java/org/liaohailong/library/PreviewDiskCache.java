@@ -0,0 +1,472 @@
+package org.liaohailong.library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 20:10
+ * Describe: 预览图磁盘缓存 - 缓存目录中保存已经缩小的原始像素，下次打开直接映射文件复制到位图，不需要解码JPEG
+ * <p>
+ * 文件格式：固定大小的文件头 + {@link Bitmap#copyPixelsToBuffer}的原始像素；
+ * 文件头记录尺寸、像素格式、缓存键和像素的CRC32，任意一项对不上就删除文件当作没有缓存
+ * <p>
+ * 总大小超出上限时，按最近使用时间淘汰
+ */
+public final class PreviewDiskCache {
+    private static final String TAG = "PreviewDiskCache";
+
+    private static final String DIR_NAME = "lhl_crop_preview";
+    private static final String SUFFIX = ".px";
+
+    private static final int MAGIC = 0x4C484C50; // "LHLP"
+    private static final int VERSION = 1;
+    /**
+     * 文件头大小，像素从这里开始，与页大小对齐
+     */
+    static final int HEADER_SIZE = 4096;
+    /**
+     * 文件头固定字段：magic、version、width、height、config、hasAlpha、byteCount、crc、keyLength
+     */
+    private static final int HEADER_FIELDS_SIZE = 4 * 7 + 8 + 4;
+    /**
+     * 计算CRC时每次读取的字节数
+     */
+    private static final int CRC_CHUNK = 64 * 1024;
+
+    /**
+     * 文件头中的像素格式
+     */
+    static final int CONFIG_ARGB_8888 = 1;
+    static final int CONFIG_RGB_565 = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile PreviewDiskCache instance;
+
+    /**
+     * @param context 上下文
+     * @return 进程内唯一的预览图磁盘缓存
+     */
+    @NonNull
+    public static PreviewDiskCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (PreviewDiskCache.class) {
+                if (instance == null) {
+                    instance = new PreviewDiskCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME),
+                            64L * 1024 * 1024);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final File dir;
+    private volatile long maxSize;
+
+    private PreviewDiskCache(@NonNull File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxSize 磁盘缓存最大字节数
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 删除所有缓存文件 - 子线程
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 读取预览图 - 子线程
+     * <p>
+     * 缓存键不含当时的内存预算，读取时再按当前预算判断：比预算小的直接使用，超出预算的保留文件、本次不用
+     *
+     * @param key      预览图的缓存键，参考{@link PreviewCache#keyOf(Context, String, CropOptions)}
+     * @param maxBytes 当前预算下预览图最多占用的字节数，参考{@link #maxBytesOf(int, int, DecodeStrategy.Spec)}
+     * @return 预览图，来自{@link BitmapPool}；没有缓存、超出预算或者缓存已损坏返回null
+     */
+    @Nullable
+    Bitmap get(@NonNull String key, long maxBytes) {
+        File file = fileOf(key);
+        if (file == null) return null;
+        Entry entry = open(file, key, maxBytes);
+        if (entry == null) return null;
+        Header header = entry.header;
+        Bitmap.Config config = configOf(header.config);
+        Bitmap bitmap = null;
+        boolean valid = false;
+        try {
+            bitmap = BitmapPool.getInstance().getDirty(header.width, header.height, config);
+            // 写入与读取的设备行字节数不同，像素对不上
+            if (bitmap.getByteCount() != header.byteCount) return null;
+            bitmap.copyPixelsFromBuffer(entry.pixels);
+            bitmap.setHasAlpha(header.hasAlpha);
+            valid = true;
+            // 最近使用时间，淘汰时参考
+            if (!file.setLastModified(System.currentTimeMillis())) log("更新使用时间失败：" + file);
+            return bitmap;
+        } catch (RuntimeException e) {
+            log("读取缓存失败：" + e.toString());
+            return null;
+        } finally {
+            if (!valid) {
+                if (bitmap != null) BitmapPool.getInstance().put(bitmap);
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * 准备写入预览图 - 子线程
+     * <p>
+     * 只把像素复制到映射的临时文件里，马上返回；之后位图可以交给界面使用，
+     * 再调用{@link Pending#commit()}计算校验值、写入文件头并落盘
+     *
+     * @param key    预览图的缓存键
+     * @param bitmap 预览图，只支持ARGB_8888和RGB_565
+     * @return 待提交的缓存，不能缓存时返回null
+     */
+    @Nullable
+    Pending prepare(@NonNull String key, @NonNull Bitmap bitmap) {
+        File file = fileOf(key);
+        if (file == null || configCodeOf(bitmap.getConfig()) == 0) return null;
+        if (HEADER_FIELDS_SIZE + key.getBytes(UTF_8).length > HEADER_SIZE) return null;
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) return null;
+        File temp = null;
+        RandomAccessFile raf = null;
+        try {
+            temp = File.createTempFile("preview_", ".tmp", dir);
+            raf = new RandomAccessFile(temp, "rw");
+            int byteCount = bitmap.getByteCount();
+            raf.setLength((long) HEADER_SIZE + byteCount);
+            MappedByteBuffer pixels = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, byteCount);
+            bitmap.copyPixelsToBuffer(pixels);
+            return new Pending(file, temp, raf, pixels, key,
+                    bitmap.getWidth(), bitmap.getHeight(), configCodeOf(bitmap.getConfig()), bitmap.hasAlpha());
+        } catch (IOException | RuntimeException e) {
+            log("写入缓存失败：" + e.toString());
+            close(raf);
+            if (temp != null) delete(temp);
+            return null;
+        }
+    }
+
+    /**
+     * 待提交的缓存文件，像素已经复制完成
+     */
+    final class Pending {
+        private final File file;
+        private final File temp;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer pixels;
+        private final String key;
+        private final int width;
+        private final int height;
+        private final int config;
+        private final boolean hasAlpha;
+
+        private Pending(File file, File temp, RandomAccessFile raf, MappedByteBuffer pixels, String key,
+                        int width, int height, int config, boolean hasAlpha) {
+            this.file = file;
+            this.temp = temp;
+            this.raf = raf;
+            this.pixels = pixels;
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.hasAlpha = hasAlpha;
+        }
+
+        /**
+         * 计算校验值、写入文件头，重命名为缓存文件，超出上限时淘汰旧文件 - 子线程
+         */
+        void commit() {
+            boolean success = false;
+            try {
+                writeHeader(raf.getChannel(), new Header(width, height, config, hasAlpha,
+                        pixels.capacity(), crcOf(pixels), key));
+                close(raf);
+                success = temp.renameTo(file);
+                if (!success) log("重命名失败：" + temp + " -> " + file);
+            } catch (IOException | RuntimeException e) {
+                log("写入缓存失败：" + e.toString());
+            } finally {
+                close(raf);
+                if (!success) delete(temp);
+            }
+            if (success) trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * @param sourceWidth  原图宽度
+     * @param sourceHeight 原图高度
+     * @param spec         当前预算下的解码参数
+     * @return 按解码参数解码出的预览图占用的字节数
+     */
+    static long maxBytesOf(int sourceWidth, int sourceHeight, @NonNull DecodeStrategy.Spec spec) {
+        int sample = Math.max(1, spec.inSampleSize);
+        int width = spec.targetWidth > 0 && spec.targetHeight > 0 ? spec.targetWidth : (sourceWidth + sample - 1) / sample;
+        // 精确缩放时高度有取整误差，多留一行
+        int height = spec.targetWidth > 0 && spec.targetHeight > 0 ? spec.targetHeight + 1 : (sourceHeight + sample - 1) / sample;
+        return (long) width * height * (spec.config == Bitmap.Config.RGB_565 ? 2 : 4);
+    }
+
+    /**
+     * 文件头
+     */
+    static final class Header {
+        final int width;
+        final int height;
+        /**
+         * 像素格式，参考{@link #configCodeOf(Bitmap.Config)}
+         */
+        final int config;
+        final boolean hasAlpha;
+        /**
+         * 像素的字节数
+         */
+        final int byteCount;
+        /**
+         * 像素的CRC32
+         */
+        final long crc;
+        final String key;
+
+        Header(int width, int height, int config, boolean hasAlpha, int byteCount, long crc, @NonNull String key) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.hasAlpha = hasAlpha;
+            this.byteCount = byteCount;
+            this.crc = crc;
+            this.key = key;
+        }
+    }
+
+    /**
+     * 校验通过的缓存文件
+     */
+    static final class Entry {
+        final Header header;
+        /**
+         * 映射的像素，只读
+         */
+        final MappedByteBuffer pixels;
+
+        Entry(@NonNull Header header, @NonNull MappedByteBuffer pixels) {
+            this.header = header;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * 写入文件头，从文件开头写入{@link #HEADER_SIZE}个字节
+     *
+     * @param channel 缓存文件
+     * @param header  文件头
+     * @throws IOException 写入失败
+     */
+    static void writeHeader(@NonNull FileChannel channel, @NonNull Header header) throws IOException {
+        byte[] keyBytes = header.key.getBytes(UTF_8);
+        if (HEADER_FIELDS_SIZE + keyBytes.length > HEADER_SIZE) throw new IOException("key too long");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(header.width)
+                .putInt(header.height)
+                .putInt(header.config)
+                .putInt(header.hasAlpha ? 1 : 0)
+                .putInt(header.byteCount)
+                .putLong(header.crc)
+                .putInt(keyBytes.length)
+                .put(keyBytes);
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * 读取文件头
+     *
+     * @param channel 缓存文件
+     * @return 文件头，格式不对返回null
+     * @throws IOException 读取失败
+     */
+    @Nullable
+    static Header readHeader(@NonNull FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) return null;
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int config = buffer.getInt();
+        boolean hasAlpha = buffer.getInt() != 0;
+        int byteCount = buffer.getInt();
+        long crc = buffer.getLong();
+        int keyLength = buffer.getInt();
+        if (width <= 0 || height <= 0 || byteCount <= 0) return null;
+        if (config != CONFIG_ARGB_8888 && config != CONFIG_RGB_565) return null;
+        if (keyLength < 0 || keyLength > buffer.remaining()) return null;
+        byte[] keyBytes = new byte[keyLength];
+        buffer.get(keyBytes);
+        return new Header(width, height, config, hasAlpha, byteCount, crc, new String(keyBytes, UTF_8));
+    }
+
+    /**
+     * 打开并校验缓存文件 - 子线程
+     * <p>
+     * 文件头、缓存键、文件长度、CRC任意一项对不上就删除文件；只是超出预算的保留文件
+     *
+     * @param file     缓存文件
+     * @param key      预览图的缓存键
+     * @param maxBytes 像素最多的字节数
+     * @return 校验通过的缓存，没有或者不可用返回null
+     */
+    @Nullable
+    static Entry open(@NonNull File file, @NonNull String key, long maxBytes) {
+        if (!file.exists()) return null;
+        RandomAccessFile raf = null;
+        boolean corrupt = true;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            Header header = readHeader(channel);
+            if (header == null) return null;
+            // 文件名是缓存键的摘要，极小概率冲突
+            if (!key.equals(header.key)) return null;
+            if (channel.size() != (long) HEADER_SIZE + header.byteCount) return null;
+            if (header.byteCount > maxBytes) {
+                corrupt = false;
+                return null;
+            }
+            MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, header.byteCount);
+            if (crcOf(pixels) != header.crc) return null;
+            corrupt = false;
+            return new Entry(header, pixels);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(raf);
+            if (corrupt) delete(file);
+        }
+    }
+
+    /**
+     * 按最近使用时间淘汰，直到总大小不超过size
+     */
+    private synchronized void trimToSize(long size) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= size) return;
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            // 排序过程中不能重复读取，修改时间可能被其它线程更新
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(modified[o1], modified[o2]);
+            }
+        });
+        for (Integer index : order) {
+            if (total <= size) break;
+            File file = files[index];
+            long length = file.length();
+            if (file.delete()) total -= length;
+        }
+    }
+
+    @Nullable
+    private File fileOf(@NonNull String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(dir, sb.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    static long crcOf(@NonNull ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        data.rewind();
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(CRC_CHUNK, Math.max(1, data.remaining()))];
+        while (data.hasRemaining()) {
+            int length = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static int configCodeOf(@Nullable Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) return CONFIG_ARGB_8888;
+        if (config == Bitmap.Config.RGB_565) return CONFIG_RGB_565;
+        return 0;
+    }
+
+    @NonNull
+    private static Bitmap.Config configOf(int code) {
+        return code == CONFIG_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    private static void delete(@NonNull File file) {
+        if (file.exists() && !file.delete()) file.deleteOnExit();
+    }
+
+    private static void close(@Nullable RandomAccessFile raf) {
+        try {
+            if (raf != null) raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void log(Object msg) {
+        Log.i(TAG, String.valueOf(msg));
+    }
+}
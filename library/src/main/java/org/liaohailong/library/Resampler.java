@@ -0,0 +1,321 @@
+package org.liaohailong.library;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 16:20
+ * Describe: 高质量缩放 - 缩小一半以上用面积平均，其余用Lanczos3，横纵两遍分离卷积
+ * <p>
+ * 按getPixels取出的int[]行处理，输出按行切成若干段，fork/join并行计算
+ */
+final class Resampler {
+
+    /**
+     * 权重的定点小数位数
+     */
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    /**
+     * 横向结果保留的小数位数
+     */
+    private static final int HORIZONTAL_BITS = 8;
+    /**
+     * Lanczos的窗口半径
+     */
+    private static final int LANCZOS_RADIUS = 3;
+    /**
+     * 每段最少的输出行数，太小了调度开销比计算还大
+     */
+    private static final int MIN_BAND_ROWS = 16;
+
+    private static volatile ForkJoinPool forkJoinPool = null;
+
+    private Resampler() {
+    }
+
+    /**
+     * @param region 源区域
+     * @param width  输出宽度
+     * @param height 输出高度
+     * @return true表示不是1:1，需要缩放
+     */
+    static boolean needsResample(@NonNull RectF region, int width, int height) {
+        return Math.abs(region.width() - width) >= 0.5f || Math.abs(region.height() - height) >= 0.5f;
+    }
+
+    /**
+     * 缩放源位图的指定区域 - 子线程
+     *
+     * @param src    源位图，任意像素格式
+     * @param region 源区域，可以是小数坐标
+     * @param width  输出宽度
+     * @param height 输出高度
+     * @return 输出位图，ARGB_8888，来自复用池
+     */
+    @NonNull
+    static Bitmap resample(@NonNull Bitmap src, @NonNull RectF region, int width, int height) {
+        Weights horizontal = new Weights(region.left, region.width(), width, src.getWidth());
+        Weights vertical = new Weights(region.top, region.height(), height, src.getHeight());
+        Bitmap dst = BitmapPool.getInstance().getDirty(width, height, Bitmap.Config.ARGB_8888);
+        boolean alpha = src.hasAlpha();
+        ForkJoinPool pool = getPool();
+        int threshold = Math.max(MIN_BAND_ROWS, height / (pool.getParallelism() * 4));
+        pool.invoke(new Band(src, dst, horizontal, vertical, alpha, threshold, 0, height));
+        dst.setHasAlpha(alpha);
+        return dst;
+    }
+
+    @NonNull
+    private static ForkJoinPool getPool() {
+        if (forkJoinPool == null) {
+            synchronized (Resampler.class) {
+                if (forkJoinPool == null) {
+                    forkJoinPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+                }
+            }
+        }
+        return forkJoinPool;
+    }
+
+    /**
+     * 一个方向上，每个输出像素由哪些源像素、以什么权重组成
+     */
+    private static final class Weights {
+        /**
+         * 每个输出像素最多的源像素个数
+         */
+        final int taps;
+        final int[] index;
+        final int[] weight;
+        final int[] count;
+        /**
+         * 用到的源像素范围
+         */
+        final int min;
+        final int max;
+
+        Weights(float offset, float length, int dstSize, int srcSize) {
+            float scale = length / dstSize;
+            // 缩小一半以上，每个输出像素覆盖多个源像素，面积平均不会丢信息也没有振铃
+            boolean box = scale >= 2f;
+            // 缩小时窗口按比例拉宽，起到低通滤波的作用
+            float filterScale = Math.max(1f, scale);
+            float support = box ? scale / 2f : LANCZOS_RADIUS * filterScale;
+            taps = (int) Math.ceil(support * 2) + 2;
+            index = new int[dstSize * taps];
+            weight = new int[dstSize * taps];
+            count = new int[dstSize];
+            float[] raw = new float[taps];
+            int lo = srcSize;
+            int hi = -1;
+            for (int i = 0; i < dstSize; i++) {
+                // 源坐标系中输出像素的中心，源像素j覆盖[j, j+1)
+                float center = offset + (i + 0.5f) * scale;
+                int first = (int) Math.floor(center - support);
+                int last = (int) Math.ceil(center + support);
+                int n = 0;
+                float total = 0f;
+                for (int j = first; j < last && n < taps; j++) {
+                    float w;
+                    if (box) {
+                        // 源像素与输出像素覆盖范围的重叠长度
+                        w = Math.min(j + 1f, center + support) - Math.max(j, center - support);
+                    } else {
+                        w = lanczos((j + 0.5f - center) / filterScale);
+                    }
+                    if (w == 0f) continue;
+                    // 超出边界的按边缘像素处理
+                    int clamped = Math.max(0, Math.min(srcSize - 1, j));
+                    if (n > 0 && index[i * taps + n - 1] == clamped) {
+                        raw[n - 1] += w;
+                    } else {
+                        index[i * taps + n] = clamped;
+                        raw[n] = w;
+                        n++;
+                    }
+                    total += w;
+                }
+                // 归一化为定点数，舍入误差补到最大的权重上
+                int sum = 0;
+                int largest = 0;
+                for (int k = 0; k < n; k++) {
+                    int fixed = Math.round(raw[k] / total * WEIGHT_ONE);
+                    weight[i * taps + k] = fixed;
+                    sum += fixed;
+                    if (Math.abs(fixed) > Math.abs(weight[i * taps + largest])) largest = k;
+                }
+                if (n > 0) {
+                    weight[i * taps + largest] += WEIGHT_ONE - sum;
+                    lo = Math.min(lo, index[i * taps]);
+                    hi = Math.max(hi, index[i * taps + n - 1]);
+                }
+                count[i] = n;
+            }
+            min = Math.max(0, lo);
+            max = Math.max(min, hi);
+        }
+
+        /**
+         * @return 第first到last-1个输出像素用到的最小源像素
+         */
+        int first(int first, int last) {
+            int result = Integer.MAX_VALUE;
+            for (int i = first; i < last; i++) {
+                if (count[i] > 0) result = Math.min(result, index[i * taps]);
+            }
+            return result == Integer.MAX_VALUE ? 0 : result;
+        }
+
+        /**
+         * @return 第first到last-1个输出像素用到的最大源像素
+         */
+        int last(int first, int last) {
+            int result = 0;
+            for (int i = first; i < last; i++) {
+                if (count[i] > 0) result = Math.max(result, index[i * taps + count[i] - 1]);
+            }
+            return result;
+        }
+
+        private static float lanczos(float x) {
+            if (x == 0f) return 1f;
+            if (x <= -LANCZOS_RADIUS || x >= LANCZOS_RADIUS) return 0f;
+            double px = Math.PI * x;
+            return (float) (LANCZOS_RADIUS * Math.sin(px) * Math.sin(px / LANCZOS_RADIUS) / (px * px));
+        }
+    }
+
+    /**
+     * 一段连续的输出行
+     */
+    private static final class Band extends RecursiveAction {
+        private final Bitmap src;
+        private final Bitmap dst;
+        private final Weights horizontal;
+        private final Weights vertical;
+        private final boolean alpha;
+        private final int threshold;
+        private final int top;
+        private final int bottom;
+
+        Band(Bitmap src, Bitmap dst, Weights horizontal, Weights vertical,
+             boolean alpha, int threshold, int top, int bottom) {
+            this.src = src;
+            this.dst = dst;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+            this.alpha = alpha;
+            this.threshold = threshold;
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+        @Override
+        protected void compute() {
+            if (bottom - top > threshold) {
+                int middle = (top + bottom) >>> 1;
+                invokeAll(new Band(src, dst, horizontal, vertical, alpha, threshold, top, middle),
+                        new Band(src, dst, horizontal, vertical, alpha, threshold, middle, bottom));
+                return;
+            }
+            int dstWidth = horizontal.count.length;
+            int srcLeft = horizontal.min;
+            int srcWidth = horizontal.max - srcLeft + 1;
+            int rowFirst = vertical.first(top, bottom);
+            int rowCount = vertical.last(top, bottom) - rowFirst + 1;
+
+            // 横向：源行 -> 输出宽度，4个通道分开存放，保留小数位
+            int[] row = new int[srcWidth];
+            int[] temp = new int[rowCount * dstWidth * 4];
+            int shift = WEIGHT_BITS - HORIZONTAL_BITS;
+            int round = 1 << (shift - 1);
+            for (int r = 0; r < rowCount; r++) {
+                src.getPixels(row, 0, srcWidth, srcLeft, rowFirst + r, srcWidth, 1);
+                if (alpha) premultiply(row);
+                int base = r * dstWidth * 4;
+                for (int x = 0; x < dstWidth; x++) {
+                    int offset = x * horizontal.taps;
+                    int a = 0, red = 0, green = 0, blue = 0;
+                    for (int k = 0, n = horizontal.count[x]; k < n; k++) {
+                        int color = row[horizontal.index[offset + k] - srcLeft];
+                        int w = horizontal.weight[offset + k];
+                        a += (color >>> 24) * w;
+                        red += ((color >> 16) & 0xFF) * w;
+                        green += ((color >> 8) & 0xFF) * w;
+                        blue += (color & 0xFF) * w;
+                    }
+                    int p = base + x * 4;
+                    temp[p] = (a + round) >> shift;
+                    temp[p + 1] = (red + round) >> shift;
+                    temp[p + 2] = (green + round) >> shift;
+                    temp[p + 3] = (blue + round) >> shift;
+                }
+            }
+
+            // 纵向：中间行 -> 输出行
+            int[] out = new int[(bottom - top) * dstWidth];
+            int totalShift = WEIGHT_BITS + HORIZONTAL_BITS;
+            long totalRound = 1L << (totalShift - 1);
+            for (int y = top; y < bottom; y++) {
+                int offset = y * vertical.taps;
+                int n = vertical.count[y];
+                int outBase = (y - top) * dstWidth;
+                for (int x = 0; x < dstWidth; x++) {
+                    long a = 0, red = 0, green = 0, blue = 0;
+                    for (int k = 0; k < n; k++) {
+                        int p = ((vertical.index[offset + k] - rowFirst) * dstWidth + x) * 4;
+                        long w = vertical.weight[offset + k];
+                        a += temp[p] * w;
+                        red += temp[p + 1] * w;
+                        green += temp[p + 2] * w;
+                        blue += temp[p + 3] * w;
+                    }
+                    int ca = clamp((a + totalRound) >> totalShift);
+                    int cr = clamp((red + totalRound) >> totalShift);
+                    int cg = clamp((green + totalRound) >> totalShift);
+                    int cb = clamp((blue + totalRound) >> totalShift);
+                    if (!alpha) {
+                        ca = 0xFF;
+                    } else if (ca == 0) {
+                        cr = cg = cb = 0;
+                    } else if (ca < 0xFF) {
+                        // setPixels需要未预乘的颜色
+                        cr = Math.min(0xFF, cr * 0xFF / ca);
+                        cg = Math.min(0xFF, cg * 0xFF / ca);
+                        cb = Math.min(0xFF, cb * 0xFF / ca);
+                    }
+                    out[outBase + x] = (ca << 24) | (cr << 16) | (cg << 8) | cb;
+                }
+            }
+            synchronized (dst) {
+                dst.setPixels(out, 0, dstWidth, 0, top, dstWidth, bottom - top);
+            }
+        }
+
+        /**
+         * getPixels取出的是未预乘的颜色，半透明像素直接加权会在边缘产生色晕
+         */
+        private static void premultiply(int[] row) {
+            for (int i = 0; i < row.length; i++) {
+                int color = row[i];
+                int a = color >>> 24;
+                if (a == 0xFF) continue;
+                int r = ((color >> 16) & 0xFF) * a / 0xFF;
+                int g = ((color >> 8) & 0xFF) * a / 0xFF;
+                int b = (color & 0xFF) * a / 0xFF;
+                row[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+
+        private static int clamp(long value) {
+            return value < 0 ? 0 : value > 0xFF ? 0xFF : (int) value;
+        }
+    }
+}
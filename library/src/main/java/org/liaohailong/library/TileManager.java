@@ -0,0 +1,303 @@
+package org.liaohailong.library;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/13 14:05
+ * Describe: 大图分块加载 - 低分辨率底图之上，按当前缩放比例和可见区域从原图解码高清分块
+ */
+final class TileManager {
+    private static final String TAG = "TileManager";
+
+    private void log(String msg) {
+        Log.i(TAG, msg);
+    }
+
+    /**
+     * 分块尺寸 - 采样后的像素
+     */
+    private static final int TILE_SIZE = 512;
+
+    /**
+     * 同时解码的线程数，每个线程独占一个解码器
+     */
+    private static final int DECODE_THREADS = 2;
+
+    private final ContentResolver resolver;
+    private final Uri source;
+    private final View host;
+
+    /**
+     * 分块缓存 - 按字节数限制
+     */
+    private final LruCache<Long, Bitmap> cache;
+
+    /**
+     * 正在解码的分块 - 主线程访问
+     */
+    private final Set<Long> pending = new HashSet<>();
+
+    /**
+     * 空闲的解码器
+     */
+    private final LinkedList<BitmapRegionDecoder> decoders = new LinkedList<>();
+    /**
+     * 已经创建的解码器数量 - decoders锁内访问
+     */
+    private int decoderCount = 0;
+    /**
+     * 原图格式不支持区域解码，不再尝试创建解码器 - decoders锁内访问
+     */
+    private boolean unsupported = false;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 原图尺寸 - 解码器准备好之前为0
+     */
+    private volatile int sourceWidth = 0;
+    private volatile int sourceHeight = 0;
+
+    /**
+     * 当前需要的采样率 - 过期的分块任务直接放弃
+     */
+    private volatile int currentSample = 0;
+    private volatile boolean released = false;
+
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF visibleRectF = new RectF();
+    private final RectF tileRectF = new RectF();
+
+    TileManager(@NonNull ContentResolver resolver, @NonNull Uri source, @NonNull View host, int cacheBytes) {
+        this.resolver = resolver;
+        this.source = source;
+        this.host = host;
+        this.cache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        executor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+
+        // 先读取原图尺寸
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitmapRegionDecoder decoder = obtainDecoder();
+                if (decoder == null) return;
+                sourceWidth = decoder.getWidth();
+                sourceHeight = decoder.getHeight();
+                recycleDecoder(decoder);
+                host.postInvalidate();
+            }
+        });
+    }
+
+    /**
+     * 绘制高清分块 - 主线程
+     *
+     * @param canvas        画布
+     * @param imageMatrix   底图坐标 -> 视图坐标
+     * @param previewWidth  底图宽度
+     * @param previewHeight 底图高度
+     * @param viewRect      视图区域
+     * @param paint         画笔
+     */
+    void draw(@NonNull Canvas canvas,
+              @NonNull Matrix imageMatrix,
+              int previewWidth,
+              int previewHeight,
+              @NonNull Rect viewRect,
+              @NonNull Paint paint) {
+        int width = sourceWidth;
+        int height = sourceHeight;
+        if (released || width <= 0 || height <= 0 || previewWidth <= 0 || previewHeight <= 0) return;
+
+        // 底图一个像素对应原图多少像素
+        float baseSample = width * 1f / previewWidth;
+        // 视图一个像素对应原图多少像素
+        float sourcePerViewPixel = baseSample / imageMatrix.mapRadius(1f);
+        int sample = 1;
+        while (sample * 2 <= sourcePerViewPixel) sample *= 2;
+        if (sample >= baseSample) {
+            // 底图已经足够清晰
+            currentSample = 0;
+            return;
+        }
+        currentSample = sample;
+
+        // 可见区域 -> 原图坐标
+        if (!imageMatrix.invert(inverseMatrix)) return;
+        visibleRectF.set(viewRect);
+        inverseMatrix.mapRect(visibleRectF);
+        visibleRectF.set(visibleRectF.left * baseSample,
+                visibleRectF.top * baseSample,
+                visibleRectF.right * baseSample,
+                visibleRectF.bottom * baseSample);
+        if (!visibleRectF.intersect(0, 0, width, height)) return;
+
+        int tileSource = TILE_SIZE * sample;
+        int fromCol = (int) (visibleRectF.left / tileSource);
+        int toCol = (int) ((visibleRectF.right - 1) / tileSource);
+        int fromRow = (int) (visibleRectF.top / tileSource);
+        int toRow = (int) ((visibleRectF.bottom - 1) / tileSource);
+
+        int saveCount = canvas.save();
+        canvas.concat(imageMatrix);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                int left = col * tileSource;
+                int top = row * tileSource;
+                int right = Math.min(width, left + tileSource);
+                int bottom = Math.min(height, top + tileSource);
+
+                long key = keyOf(sample, col, row);
+                Bitmap tile = cache.get(key);
+                if (tile == null) {
+                    requestTile(key, sample, left, top, right, bottom);
+                    continue;
+                }
+                // 原图坐标 -> 底图坐标
+                tileRectF.set(left / baseSample, top / baseSample, right / baseSample, bottom / baseSample);
+                canvas.drawBitmap(tile, null, tileRectF, paint);
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * 释放所有分块与解码器 - 主线程
+     */
+    void release() {
+        released = true;
+        executor.shutdownNow();
+        pending.clear();
+        cache.evictAll();
+        synchronized (decoders) {
+            for (BitmapRegionDecoder decoder : decoders) {
+                decoder.recycle();
+            }
+            decoders.clear();
+        }
+    }
+
+    private void requestTile(final long key, final int sample,
+                             int left, int top, int right, int bottom) {
+        if (pending.contains(key)) return;
+        pending.add(key);
+        final Rect rect = new Rect(left, top, right, bottom);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // 缩放比例已经变了，这个分块不再需要
+                final Bitmap bitmap = currentSample == sample ? decodeTile(rect, sample) : null;
+                host.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        pending.remove(key);
+                        if (bitmap == null || released) return;
+                        cache.put(key, bitmap);
+                        host.invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap decodeTile(Rect rect, int sample) {
+        BitmapRegionDecoder decoder = obtainDecoder();
+        if (decoder == null) return null;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sample;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            return decoder.decodeRegion(rect, options);
+        } catch (Exception e) {
+            log("分块解码失败：" + e.toString());
+            return null;
+        } finally {
+            recycleDecoder(decoder);
+        }
+    }
+
+    private BitmapRegionDecoder obtainDecoder() {
+        synchronized (decoders) {
+            if (released || unsupported) return null;
+            BitmapRegionDecoder decoder = decoders.pollFirst();
+            if (decoder != null) return decoder;
+            if (decoderCount >= DECODE_THREADS) return null;
+            decoderCount++;
+        }
+        ParcelFileDescriptor pfd = null;
+        BitmapRegionDecoder decoder = null;
+        boolean formatUnsupported = false;
+        try {
+            pfd = resolver.openFileDescriptor(source, "r");
+            if (pfd != null) {
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(pfd.getFileDescriptor(), false);
+                } catch (IOException e) {
+                    // 格式不支持区域解码，只显示底图
+                    formatUnsupported = true;
+                    log("原图不支持分块解码：" + e.toString());
+                }
+            }
+        } catch (Exception e) {
+            // 打开原图失败可能只是暂时的，下次还可以重试
+            log("分块解码器创建失败：" + e.toString());
+        } finally {
+            if (pfd != null) {
+                try {
+                    pfd.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (decoder == null) {
+                synchronized (decoders) {
+                    decoderCount--;
+                    if (formatUnsupported) unsupported = true;
+                }
+            }
+        }
+        return decoder;
+    }
+
+    private void recycleDecoder(BitmapRegionDecoder decoder) {
+        synchronized (decoders) {
+            if (released) decoder.recycle();
+            else decoders.addLast(decoder);
+        }
+    }
+
+    private static long keyOf(int sample, int col, int row) {
+        return ((long) sample << 48) | ((long) row << 24) | col;
+    }
+}
@@ -0,0 +1,194 @@
+package org.liaohailong.library;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Author: liaohailong
+ * Time: 2020/10/18 14:40
+ * Describe: 附加输出 - 从同一张裁剪结果缩小到各尺寸，各尺寸、格式并行压缩
+ * <p>
+ * 缩放由{@link Resampler}完成，大倍数缩小用面积平均，直接从主输出缩放不会产生锯齿
+ */
+final class VariantEncoder {
+
+    /**
+     * 压缩线程 - 与{@link CropExecutors}分开，提交方在等待时不会占满同一个线程池
+     */
+    private static volatile ThreadPoolExecutor encodeExecutor = null;
+
+    private VariantEncoder() {
+    }
+
+    /**
+     * 输出所有附加输出，任意一个失败则抛出异常 - 子线程
+     *
+     * @param context    上下文
+     * @param bitmap     主输出的裁剪结果，调用方负责回收
+     * @param options    裁剪配置信息
+     * @param sourceExif 原图的EXIF信息，null表示没有
+     * @param degrees    显示时需要顺时针旋转的角度，写入EXIF方向标签时使用
+     * @param tracer     阶段耗时记录，可以为null
+     * @throws IOException 缩放、压缩或者写入失败
+     */
+    static void write(@NonNull final Context context,
+                      @NonNull Bitmap bitmap,
+                      @NonNull final CropOptions options,
+                      @Nullable final ExifInterface sourceExif,
+                      final int degrees,
+                      @Nullable final PipelineTracer tracer) throws IOException {
+        List<OutputVariant> variants = new ArrayList<>(options.getVariants());
+        if (variants.isEmpty()) return;
+        // 写入EXIF方向标签时，裁剪结果是原图方向，附加输出的宽高也要互换
+        final boolean tag = options.isOrientationTag();
+        final boolean swap = tag && CropRenderer.isSwapped(degrees);
+        // 从大到小，相同尺寸相邻，共用一张缩放结果
+        Collections.sort(variants, new Comparator<OutputVariant>() {
+            @Override
+            public int compare(OutputVariant o1, OutputVariant o2) {
+                return Long.compare((long) o2.getWidth() * o2.getHeight(), (long) o1.getWidth() * o1.getHeight());
+            }
+        });
+
+        List<Bitmap> intermediates = new ArrayList<>();
+        List<Future<Void>> futures = new ArrayList<>(variants.size());
+        IOException error = null;
+        try {
+            Bitmap scaled = null;
+            for (final OutputVariant variant : variants) {
+                int width = swap ? variant.getHeight() : variant.getWidth();
+                int height = swap ? variant.getWidth() : variant.getHeight();
+                if (width <= 0 || height <= 0) throw new IOException("invalid variant size: " + width + "x" + height);
+                if (scaled == null || scaled.getWidth() != width || scaled.getHeight() != height) {
+                    if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                        scaled = bitmap;
+                    } else {
+                        scaled = CropRenderer.render(bitmap, null, 0, width, height);
+                        intermediates.add(scaled);
+                    }
+                }
+                final Bitmap source = scaled;
+                futures.add(getExecutor().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        encode(context, source, variant, options, sourceExif, tag ? degrees : 0, tracer);
+                        return null;
+                    }
+                }));
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e instanceof IOException ? (IOException) e : new IOException(e);
+        } finally {
+            // 等所有压缩结束才能回收中间位图
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        Throwable cause = e.getCause();
+                        error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (error == null) error = new IOException(e);
+                }
+            }
+            BitmapPool pool = BitmapPool.getInstance();
+            for (Bitmap intermediate : intermediates) {
+                pool.put(intermediate);
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * 压缩一个附加输出 - 压缩线程
+     *
+     * @param degrees 写入EXIF方向标签的角度，0表示像素已经旋转
+     */
+    private static void encode(Context context,
+                               Bitmap bitmap,
+                               OutputVariant variant,
+                               CropOptions options,
+                               ExifInterface sourceExif,
+                               int degrees,
+                               PipelineTracer tracer) throws IOException {
+        PipelineTracer.Span span = tracer != null ? tracer.begin(PipelineEvent.Stage.VARIANT) : null;
+        boolean jpeg = variant.getFormat() == Bitmap.CompressFormat.JPEG;
+        // 只有JPEG能写方向标签，其它格式在这里旋转像素
+        Bitmap source = degrees != 0 && !jpeg
+                ? CropRenderer.render(bitmap, null, degrees, variant.getWidth(), variant.getHeight())
+                : bitmap;
+        CropOutput output = null;
+        try {
+            output = CropOutput.create(context, variant.getOutput(), options.isOutputSync());
+            int quality = variant.getQuality() >= 0 ? variant.getQuality() : options.getQuality();
+            OutputStream os = output.openStream();
+            try {
+                BitmapEncoder.encode(source, variant.getFormat(), quality, 0, os);
+            } finally {
+                os.close();
+            }
+            if (jpeg && degrees != 0) {
+                CropOutputWriter.writeExif(output.getTempFile().getPath(), sourceExif, degrees);
+            }
+            long bytes = output.commit();
+            if (span != null) span.end(bytes, variant.getWidth(), variant.getHeight());
+        } catch (IOException | RuntimeException e) {
+            if (span != null) span.fail(e);
+            throw e;
+        } finally {
+            if (output != null) output.abort();
+            if (source != bitmap) BitmapPool.getInstance().put(source);
+        }
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor getExecutor() {
+        if (encodeExecutor == null) {
+            synchronized (VariantEncoder.class) {
+                if (encodeExecutor == null) {
+                    int count = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(count, count,
+                            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadIndex = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(@NonNull final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, "VariantEncoder#" + threadIndex.incrementAndGet());
+                        }
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    encodeExecutor = executor;
+                }
+            }
+        }
+        return encodeExecutor;
+    }
+}
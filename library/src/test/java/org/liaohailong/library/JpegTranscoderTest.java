@@ -0,0 +1,297 @@
+package org.liaohailong.library;
+
+import org.junit.Test;
+import org.w3c.dom.NodeList;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JPEG无损裁剪、旋转：与解码原图后裁剪、旋转的结果比较
+ */
+public class JpegTranscoderTest {
+    private static final String FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+    /**
+     * 裁剪区域，起始边不在MCU边界上
+     */
+    private static final int[] CROP = {20, 18, 84, 58};
+    /**
+     * 亮度系数原样搬移，与解码后旋转只差IDCT的舍入
+     */
+    private static final double MAX_LUMA_MEAN_DIFF = 0.5;
+    private static final double MAX_LUMA_DIFF = 4;
+    /**
+     * 色度上采样不是旋转对称的（如4:2:2转置后解码器按垂直方向上采样），只限制平均差
+     */
+    private static final double MAX_RGB_MEAN_DIFF = 3;
+
+    @Test
+    public void rotate0() throws IOException {
+        assertRotated(encode(2, 2, 0), 0);
+    }
+
+    @Test
+    public void rotate90() throws IOException {
+        assertRotated(encode(2, 2, 0), 90);
+    }
+
+    @Test
+    public void rotate180() throws IOException {
+        assertRotated(encode(2, 2, 0), 180);
+    }
+
+    @Test
+    public void rotate270() throws IOException {
+        assertRotated(encode(2, 2, 0), 270);
+    }
+
+    @Test
+    public void negativeDegrees() throws IOException {
+        byte[] source = encode(2, 2, 0);
+        ByteArrayOutputStream minus90 = new ByteArrayOutputStream();
+        ByteArrayOutputStream plus270 = new ByteArrayOutputStream();
+        JpegTranscoder.transcode(new ByteArrayInputStream(source), minus90, CROP[0], CROP[1], CROP[2], CROP[3], -90);
+        JpegTranscoder.transcode(new ByteArrayInputStream(source), plus270, CROP[0], CROP[1], CROP[2], CROP[3], 270);
+        assertArrayEquals(plus270.toByteArray(), minus90.toByteArray());
+    }
+
+    @Test
+    public void restartMarkers() throws IOException {
+        // 每个MCU一个重启标记，裁剪区域前后跳过的MCU都跨越重启标记
+        byte[] source = encode(2, 2, 1);
+        assertTrue(hasMarker(source, 0xDD));
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertRotated(source, degrees);
+        }
+    }
+
+    @Test
+    public void restartMarkersUnaligned() throws IOException {
+        // 重启间隔不是一行MCU的整数倍
+        byte[] source = encode(2, 2, 5);
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertRotated(source, degrees);
+        }
+    }
+
+    @Test
+    public void samplingFactors420() throws IOException {
+        byte[] source = encode(2, 2, 0);
+        assertEquals(0x22, lumaSampling(source));
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertEquals(0x22, lumaSampling(assertRotated(source, degrees)));
+        }
+    }
+
+    @Test
+    public void samplingFactors422AreSwapped() throws IOException {
+        byte[] source = encode(2, 1, 0);
+        assertEquals(0x21, lumaSampling(source));
+        assertEquals(0x21, lumaSampling(assertRotated(source, 0)));
+        assertEquals(0x12, lumaSampling(assertRotated(source, 90)));
+        assertEquals(0x21, lumaSampling(assertRotated(source, 180)));
+        assertEquals(0x12, lumaSampling(assertRotated(source, 270)));
+    }
+
+    @Test
+    public void cropAlignment() throws IOException {
+        byte[] source = encode(2, 2, 0);
+        // 起始边向外对齐到16，旋转后成为输出起始边的结束边向内对齐
+        assertArrayEquals(new int[]{16, 16, 84, 58}, transcode(source, 0, new ByteArrayOutputStream()));
+        assertArrayEquals(new int[]{16, 16, 84, 48}, transcode(source, 90, new ByteArrayOutputStream()));
+        assertArrayEquals(new int[]{16, 16, 80, 48}, transcode(source, 180, new ByteArrayOutputStream()));
+        assertArrayEquals(new int[]{16, 16, 80, 58}, transcode(source, 270, new ByteArrayOutputStream()));
+    }
+
+    @Test(expected = IOException.class)
+    public void notJpeg() throws IOException {
+        JpegTranscoder.transcode(new ByteArrayInputStream(new byte[]{'P', 'N', 'G'}), new ByteArrayOutputStream(),
+                0, 0, 16, 16, 0);
+    }
+
+    /**
+     * 转码结果与解码原图后裁剪、旋转的结果比较
+     *
+     * @return 转码结果
+     */
+    private static byte[] assertRotated(byte[] source, int degrees) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] actual = transcode(source, degrees, out);
+        byte[] result = out.toByteArray();
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(source));
+        BufferedImage expected = rotate(decoded.getSubimage(actual[0], actual[1],
+                actual[2] - actual[0], actual[3] - actual[1]), degrees);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(result));
+        String message = degrees + "°";
+        assertEquals(message, expected.getWidth(), image.getWidth());
+        assertEquals(message, expected.getHeight(), image.getHeight());
+
+        double lumaSum = 0;
+        double lumaMax = 0;
+        long rgbSum = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = image.getRGB(x, y);
+                double diff = Math.abs(luma(a) - luma(b));
+                lumaSum += diff;
+                lumaMax = Math.max(lumaMax, diff);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    rgbSum += Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF));
+                }
+            }
+        }
+        int pixels = image.getWidth() * image.getHeight();
+        double lumaMean = lumaSum / pixels;
+        double rgbMean = rgbSum / (pixels * 3.0);
+        assertTrue(message + " luma mean diff " + lumaMean, lumaMean <= MAX_LUMA_MEAN_DIFF);
+        assertTrue(message + " luma max diff " + lumaMax, lumaMax <= MAX_LUMA_DIFF);
+        assertTrue(message + " rgb mean diff " + rgbMean, rgbMean <= MAX_RGB_MEAN_DIFF);
+        return result;
+    }
+
+    private static double luma(int rgb) {
+        return 0.299 * (rgb >> 16 & 0xFF) + 0.587 * (rgb >> 8 & 0xFF) + 0.114 * (rgb & 0xFF);
+    }
+
+    private static int[] transcode(byte[] source, int degrees, ByteArrayOutputStream out) throws IOException {
+        return JpegTranscoder.transcode(new ByteArrayInputStream(source), out,
+                CROP[0], CROP[1], CROP[2], CROP[3], degrees);
+    }
+
+    /**
+     * 顺时针旋转
+     */
+    private static BufferedImage rotate(BufferedImage src, int degrees) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        boolean swap = degrees == 90 || degrees == 270;
+        BufferedImage dst = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < dst.getHeight(); y++) {
+            for (int x = 0; x < dst.getWidth(); x++) {
+                int rgb;
+                switch (degrees) {
+                    case 90:
+                        rgb = src.getRGB(y, h - 1 - x);
+                        break;
+                    case 180:
+                        rgb = src.getRGB(w - 1 - x, h - 1 - y);
+                        break;
+                    case 270:
+                        rgb = src.getRGB(w - 1 - y, x);
+                        break;
+                    default:
+                        rgb = src.getRGB(x, y);
+                        break;
+                }
+                dst.setRGB(x, y, rgb);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * 生成测试原图：渐变底色上的不对称色块，旋转方向错误时差异明显
+     *
+     * @param h               亮度水平采样因子
+     * @param v               亮度垂直采样因子
+     * @param restartInterval 重启间隔，0表示没有
+     */
+    private static byte[] encode(int h, int v, int restartInterval) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int r = x * 255 / WIDTH;
+                int g = y * 255 / HEIGHT;
+                int b = 128;
+                if (x >= 24 && x < 40 && y >= 20 && y < 28) {
+                    r = 240;
+                    g = 32;
+                    b = 32;
+                } else if (x >= 56 && x < 64 && y >= 24 && y < 52) {
+                    r = 32;
+                    g = 32;
+                    b = 240;
+                }
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(FORMAT);
+        NodeList specs = root.getElementsByTagName("componentSpec");
+        for (int i = 0; i < specs.getLength(); i++) {
+            IIOMetadataNode spec = (IIOMetadataNode) specs.item(i);
+            spec.setAttribute("HsamplingFactor", String.valueOf(i == 0 ? h : 1));
+            spec.setAttribute("VsamplingFactor", String.valueOf(i == 0 ? v : 1));
+        }
+        if (restartInterval > 0) {
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+            markers.insertBefore(dri, markers.getFirstChild());
+        }
+        metadata.setFromTree(FORMAT, root);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return 帧头中第一个分量的采样因子，高4位水平，低4位垂直
+     */
+    private static int lumaSampling(byte[] jpeg) throws IOException {
+        int offset = findMarker(jpeg, 0xC0);
+        if (offset < 0) throw new IOException("missing SOF0");
+        // 标记、长度、精度、高、宽、分量数、分量id
+        return jpeg[offset + 11] & 0xFF;
+    }
+
+    private static boolean hasMarker(byte[] jpeg, int code) {
+        return findMarker(jpeg, code) >= 0;
+    }
+
+    /**
+     * 按段查找标记，到扫描数据为止
+     */
+    private static int findMarker(byte[] jpeg, int code) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int marker = jpeg[offset + 1] & 0xFF;
+            if (marker == code) return offset;
+            if (marker == 0xDA) return -1;
+            offset += 2 + ((jpeg[offset + 2] & 0xFF) << 8 | jpeg[offset + 3] & 0xFF);
+        }
+        return -1;
+    }
+}
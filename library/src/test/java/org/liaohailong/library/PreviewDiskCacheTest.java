@@ -0,0 +1,150 @@
+package org.liaohailong.library;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 预览图磁盘缓存的文件格式：文件头、缓存键、CRC的读写与校验
+ */
+public class PreviewDiskCacheTest {
+    private static final String KEY = "content://media/external/images/media/42#123456#1602990000"
+            + "#org.liaohailong.library.MemoryBudgetDecodeStrategy#1080x2340#0x0";
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+    private static final int BYTE_COUNT = WIDTH * HEIGHT * 4;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("preview_", ".px");
+    }
+
+    @After
+    public void tearDown() {
+        if (file.exists()) assertTrue(file.delete());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] pixels = write(KEY, BYTE_COUNT);
+
+        PreviewDiskCache.Entry entry = PreviewDiskCache.open(file, KEY, BYTE_COUNT);
+        assertNotNull(entry);
+        assertEquals(WIDTH, entry.header.width);
+        assertEquals(HEIGHT, entry.header.height);
+        assertEquals(PreviewDiskCache.CONFIG_ARGB_8888, entry.header.config);
+        assertTrue(entry.header.hasAlpha);
+        assertEquals(BYTE_COUNT, entry.header.byteCount);
+        assertEquals(KEY, entry.header.key);
+        byte[] read = new byte[BYTE_COUNT];
+        entry.pixels.get(read);
+        assertArrayEquals(pixels, read);
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void corruptPixelsAreDeleted() throws IOException {
+        write(KEY, BYTE_COUNT);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(file.length() - 1);
+            int last = raf.read();
+            raf.seek(file.length() - 1);
+            raf.write(last ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(PreviewDiskCache.open(file, KEY, BYTE_COUNT));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void corruptHeaderIsDeleted() throws IOException {
+        write(KEY, BYTE_COUNT);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(0);
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(PreviewDiskCache.open(file, KEY, BYTE_COUNT));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void truncatedFileIsDeleted() throws IOException {
+        write(KEY, BYTE_COUNT);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(file.length() - 4);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(PreviewDiskCache.open(file, KEY, BYTE_COUNT));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void otherKeyIsDeleted() throws IOException {
+        write(KEY, BYTE_COUNT);
+
+        assertNull(PreviewDiskCache.open(file, KEY + "#other", BYTE_COUNT));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void overBudgetIsKept() throws IOException {
+        write(KEY, BYTE_COUNT);
+
+        assertNull(PreviewDiskCache.open(file, KEY, BYTE_COUNT - 1));
+        assertTrue(file.exists());
+        assertNotNull(PreviewDiskCache.open(file, KEY, BYTE_COUNT));
+    }
+
+    @Test
+    public void missingFile() {
+        assertTrue(file.delete());
+        assertNull(PreviewDiskCache.open(file, KEY, BYTE_COUNT));
+    }
+
+    /**
+     * 按缓存的方式写入：先映射写入像素，再计算CRC写入文件头
+     */
+    private byte[] write(String key, int byteCount) throws IOException {
+        byte[] pixels = new byte[byteCount];
+        for (int i = 0; i < byteCount; i++) {
+            pixels[i] = (byte) (i * 31 + 7);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            raf.setLength((long) PreviewDiskCache.HEADER_SIZE + byteCount);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, PreviewDiskCache.HEADER_SIZE, byteCount);
+            buffer.put(pixels);
+            PreviewDiskCache.writeHeader(channel, new PreviewDiskCache.Header(WIDTH, HEIGHT,
+                    PreviewDiskCache.CONFIG_ARGB_8888, true, byteCount, PreviewDiskCache.crcOf(buffer), key));
+        } finally {
+            raf.close();
+        }
+        return pixels;
+    }
+}